@@ -1,14 +1,64 @@
 package org.example;
 
-import java.io.FileWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class Main {
     // Enum to define log levels
@@ -21,199 +71,5047 @@ public class Main {
 
         // Method to format log messages based on log level and message content
         String format(LogLevel level, String message);
+
+        // Method to format log messages captured at an earlier point in time (used by the async writer)
+        default String format(LogLevel level, String message, long timestampMillis) {
+            return format(level, message);
+        }
+
+        // Method to append the formatted message to a reusable buffer; implementations override it
+        // to render without allocating, the default falls back to the String based methods.
+        // The timestamp is in nanoseconds since the epoch so sub-millisecond precision is available.
+        default void formatTo(StringBuilder out, LogLevel level, CharSequence message, long epochNanos) {
+            out.append(format(level, message.toString(), Math.floorDiv(epochNanos, 1_000_000L)));
+        }
+
+        // Method used by the logger, giving formatters access to everything captured with the event
+        // (logger and thread name); the rendered message is passed separately
+        default void formatTo(StringBuilder out, LogEvent event, CharSequence message) {
+            formatTo(out, event.level, message, event.timestampNanos);
+        }
+
+        // Whether the formatter renders the event's key/value pairs itself; otherwise they are appended to
+        // the message as " key=value"
+        default boolean rendersKeyValues() {
+            return false;
+        }
+    }
+
+    // Formatter that can write the encoded line itself, so the logger skips the char line and the UTF-8 pass
+    interface ByteLogFormatter extends LogFormatter {
+        // Method to get an upper bound of the bytes encodeTo writes for this event
+        int maxBytes(LogEvent event, CharSequence message);
+
+        // Method to write the formatted line, without newline, at the buffer position; the buffer is
+        // array-backed and has at least maxBytes(event, message) bytes remaining
+        void encodeTo(ByteBuffer out, LogEvent event, CharSequence message);
+    }
+
+    // Simple log formatter implementation
+    static class SimpleLogFormatter implements LogFormatter {
+
+        // Implementation of the format method for simple log messages
+        @Override
+        public String format(LogLevel level, String message) {
+            StringBuilder out = new StringBuilder(message.length() + 8);
+            formatTo(out, level, message, 0L);
+            return out.toString();
+        }
+
+        // Format the log message to include the log level in brackets, appending straight into the buffer
+        @Override
+        public void formatTo(StringBuilder out, LogLevel level, CharSequence message, long epochNanos) {
+            out.append('[').append(level.name()).append("] ").append(message);
+        }
+    }
+
+    // Timestamped log formatter implementation
+    static class TimestampedLogFormatter implements LogFormatter {
+
+        // Number of fractional second digits rendered after the yyyy-MM-dd HH:mm:ss prefix
+        enum Precision {
+            SECONDS(0), MILLIS(3), MICROS(6);
+
+            final int digits; // Fraction digits to render
+            final long divisor; // Nanoseconds per unit of the last rendered digit
+
+            Precision(int digits) {
+                this.digits = digits;
+                this.divisor = digits == 0 ? 1_000_000_000L : (digits == 3 ? 1_000_000L : 1_000L);
+            }
+        }
+
+        private final TimestampRenderer timestamps; // Cached yyyy-MM-dd HH:mm:ss prefix plus fraction digits
+
+        // Default constructor keeps the original second precision layout
+        public TimestampedLogFormatter() {
+            this(Precision.SECONDS);
+        }
+
+        // Constructor that selects how many fractional digits are rendered
+        public TimestampedLogFormatter(Precision precision) {
+            this.timestamps = new TimestampRenderer(precision, ' ');
+        }
+
+        // Implementation of the format method for timestamped log messages
+        @Override
+        public String format(LogLevel level, String message) {
+            return format(level, message, System.currentTimeMillis());
+        }
+
+        // Implementation of the format method using the time the event was captured
+        @Override
+        public String format(LogLevel level, String message, long timestampMillis) {
+            StringBuilder out = new StringBuilder(message.length() + 36);
+            formatTo(out, level, message, timestampMillis * 1_000_000L);
+            return out.toString();
+        }
+
+        // Format the log message to include the timestamp, log level, and message without temporary objects
+        @Override
+        public void formatTo(StringBuilder out, LogLevel level, CharSequence message, long epochNanos) {
+            timestamps.appendTo(out, epochNanos);
+            out.append(" [").append(level.name()).append("] ").append(message);
+        }
+    }
+
+    // Renders local date and time with a per-second cache: the date/time prefix is rendered once per epoch
+    // second and reused, only the fraction digits are computed per event
+    static final class TimestampRenderer {
+        // Rendered date and time for one epoch second; replaced as a whole so readers never see a mix
+        private static final class CachedSecond {
+            final long epochSecond;
+            final char[] text;
+
+            CachedSecond(long epochSecond, char[] text) {
+                this.epochSecond = epochSecond;
+                this.text = text;
+            }
+        }
+
+        // Time zone used for rendering; its offset lookup does not allocate, unlike SimpleDateFormat
+        private final TimeZone timeZone;
+        private final TimestampedLogFormatter.Precision precision; // Fraction digits appended after the cached prefix
+        private final char dateTimeSeparator; // ' ' for the classic layout, 'T' for ISO 8601
+        // Last rendered second; while the second is unchanged only the fraction digits are computed
+        private volatile CachedSecond cachedSecond = new CachedSecond(Long.MIN_VALUE, new char[0]);
+
+        TimestampRenderer(TimestampedLogFormatter.Precision precision, char dateTimeSeparator) {
+            this(precision, dateTimeSeparator, TimeZone.getDefault());
+        }
+
+        TimestampRenderer(TimestampedLogFormatter.Precision precision, char dateTimeSeparator, TimeZone timeZone) {
+            this.precision = precision;
+            this.dateTimeSeparator = dateTimeSeparator;
+            this.timeZone = timeZone;
+        }
+
+        // Method to append the cached date/time prefix and patch in the fraction digits
+        void appendTo(StringBuilder out, long epochNanos) {
+            out.append(currentSecond(Math.floorDiv(epochNanos, 1_000_000_000L)));
+            if (precision.digits > 0) {
+                out.append('.');
+                appendPadded(out, Math.floorMod(epochNanos, 1_000_000_000L) / precision.divisor, precision.digits);
+            }
+        }
+
+        // Method to write the same text as ASCII bytes into the array at offset; returns the offset after it
+        int appendTo(byte[] out, int offset, long epochNanos) {
+            char[] text = currentSecond(Math.floorDiv(epochNanos, 1_000_000_000L));
+            for (char c : text) {
+                out[offset++] = (byte) c;
+            }
+            if (precision.digits > 0) {
+                out[offset++] = '.';
+                long fraction = Math.floorMod(epochNanos, 1_000_000_000L) / precision.divisor;
+                for (int i = offset + precision.digits - 1; i >= offset; i--, fraction /= 10) {
+                    out[i] = (byte) ('0' + fraction % 10);
+                }
+                offset += precision.digits;
+            }
+            return offset;
+        }
+
+        // Method to get the rendered text of the given second, from the cache when possible
+        private char[] currentSecond(long epochSecond) {
+            CachedSecond cached = cachedSecond;
+            if (cached.epochSecond != epochSecond) {
+                // Slow path, taken at most once per second per renderer
+                cached = new CachedSecond(epochSecond, renderSecond(epochSecond));
+                cachedSecond = cached;
+            }
+            return cached.text;
+        }
+
+        // Method to render yyyy-MM-dd HH:mm:ss in the renderer's time zone using plain arithmetic
+        private char[] renderSecond(long epochSecond) {
+            long localSeconds = epochSecond + timeZone.getOffset(epochSecond * 1000L) / 1000;
+            long epochDay = Math.floorDiv(localSeconds, 86_400L);
+            int secondOfDay = (int) Math.floorMod(localSeconds, 86_400L);
+            // Civil date from day count (proleptic Gregorian calendar, eras of 400 years)
+            long z = epochDay + 719_468L;
+            long era = Math.floorDiv(z, 146_097L);
+            long dayOfEra = z - era * 146_097L;
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long monthIndex = (5 * dayOfYear + 2) / 153;
+            int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+            int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+            long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+            StringBuilder out = new StringBuilder(19);
+            appendPadded(out, year, 4);
+            out.append('-');
+            appendPadded(out, month, 2);
+            out.append('-');
+            appendPadded(out, day, 2);
+            out.append(dateTimeSeparator);
+            appendPadded(out, secondOfDay / 3600, 2);
+            out.append(':');
+            appendPadded(out, secondOfDay / 60 % 60, 2);
+            out.append(':');
+            appendPadded(out, secondOfDay % 60, 2);
+            char[] text = new char[out.length()];
+            out.getChars(0, text.length, text, 0);
+            return text;
+        }
+
+        // Method to append a non-negative number left-padded with zeros to the given width
+        static void appendPadded(StringBuilder out, long value, int width) {
+            for (long limit = 10; width > 1; width--, limit *= 10) {
+                if (value < limit) {
+                    out.append('0');
+                }
+            }
+            out.append(value);
+        }
+    }
+
+    // Layout formatter driven by a logback-style pattern such as "%d{ISO8601} %-5level [%thread] %logger - %msg".
+    // The pattern is parsed once into an array of converters; rendering an event walks that array and appends
+    // straight into the reusable buffer, so there is no per-event parsing, regex or boxing.
+    // Supported: %d / %date with optional {ISO8601}, {ISO8601_MICROS}, {DEFAULT} or {DEFAULT_MICROS};
+    // %level / %le / %p; %thread / %t; %logger / %lo / %c; %msg / %message / %m; %X / %mdc with an optional
+    // {key} (the whole MDC as "key=value, ..." without one); %kv for structured key/value pairs (appended to
+    // %msg when the pattern has no %kv); %n; %%. Each conversion
+    // accepts a minimum width (left-aligned with '-') and a maximum width (".N", truncating from the left).
+    static class PatternLogFormatter implements LogFormatter {
+        // One element of a parsed pattern
+        interface Converter {
+            void format(StringBuilder out, LogEvent event, CharSequence message);
+        }
+
+        // Converter for %kv
+        private static final Converter KEY_VALUES = (out, event, message) -> {
+            int start = out.length();
+            event.keyValues.appendTo(out);
+            if (out.length() > start) {
+                out.deleteCharAt(start); // appendTo separates every pair with a leading space
+            }
+        };
+
+        private final String pattern; // Original pattern text, for diagnostics
+        private final Converter[] converters; // Parsed pattern, walked in order for every event
+        private final boolean rendersKeyValues; // Whether the pattern contains %kv
+
+        // Constructor that parses the pattern; malformed patterns fail here rather than at logging time
+        public PatternLogFormatter(String pattern) {
+            Set<String> words = new HashSet<>();
+            this.pattern = pattern;
+            this.converters = parse(pattern, words);
+            this.rendersKeyValues = words.contains("kv");
+        }
+
+        // Implementation of the format method for callers without an event
+        @Override
+        public String format(LogLevel level, String message) {
+            LogEvent event = new LogEvent();
+            event.level = level;
+            event.loggerName = Logger.ROOT_NAME;
+            event.threadName = Thread.currentThread().getName();
+            event.context = MDC.getContext();
+            event.timestampNanos = LogClock.currentTimeNanos();
+            StringBuilder out = new StringBuilder(message.length() + 64);
+            formatTo(out, event, message);
+            return out.toString();
+        }
+
+        // Implementation for callers that only know level and time; logger and thread render as empty
+        @Override
+        public void formatTo(StringBuilder out, LogLevel level, CharSequence message, long epochNanos) {
+            LogEvent event = new LogEvent();
+            event.level = level;
+            event.timestampNanos = epochNanos;
+            formatTo(out, event, message);
+        }
+
+        // Render the event by walking the precompiled converters
+        @Override
+        public void formatTo(StringBuilder out, LogEvent event, CharSequence message) {
+            for (Converter converter : converters) {
+                converter.format(out, event, message);
+            }
+        }
+
+        // Method to get the pattern this formatter was built from
+        public String getPattern() {
+            return pattern;
+        }
+
+        @Override
+        public boolean rendersKeyValues() {
+            return rendersKeyValues;
+        }
+
+        // Method to turn the pattern into converters, merging literal text into single constants;
+        // the conversion words used are added to words
+        private static Converter[] parse(String pattern, Set<String> words) {
+            List<Converter> result = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i++);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i >= pattern.length()) {
+                    throw new IllegalArgumentException("Dangling '%' at end of pattern: " + pattern);
+                }
+                if (pattern.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+                // Format modifier: [-][minWidth][.maxWidth]
+                boolean leftAlign = false;
+                if (pattern.charAt(i) == '-') {
+                    leftAlign = true;
+                    i++;
+                }
+                int minWidth = 0;
+                while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+                    minWidth = minWidth * 10 + (pattern.charAt(i++) - '0');
+                }
+                int maxWidth = Integer.MAX_VALUE;
+                if (i < pattern.length() && pattern.charAt(i) == '.') {
+                    i++;
+                    maxWidth = 0;
+                    while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+                        maxWidth = maxWidth * 10 + (pattern.charAt(i++) - '0');
+                    }
+                }
+                int wordStart = i;
+                while (i < pattern.length() && Character.isLetter(pattern.charAt(i))) {
+                    i++;
+                }
+                String word = pattern.substring(wordStart, i);
+                String option = null;
+                if (i < pattern.length() && pattern.charAt(i) == '{') {
+                    int close = pattern.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unclosed '{' in pattern: " + pattern);
+                    }
+                    option = pattern.substring(i + 1, close);
+                    i = close + 1;
+                }
+                Converter converter = converterFor(word, option, pattern);
+                words.add(word);
+                if (converter == null) {
+                    continue; // %n: line separators are added by the appenders
+                }
+                if (literal.length() > 0) {
+                    result.add(literal(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (minWidth > 0 || maxWidth != Integer.MAX_VALUE) {
+                    converter = padded(converter, leftAlign, minWidth, maxWidth);
+                }
+                result.add(converter);
+            }
+            if (literal.length() > 0) {
+                result.add(literal(literal.toString()));
+            }
+            return result.toArray(new Converter[0]);
+        }
+
+        // Method to map a conversion word to its converter; returns null for words that render nothing
+        private static Converter converterFor(String word, String option, String pattern) {
+            switch (word) {
+                case "d":
+                case "date":
+                    return dateConverter(option);
+                case "level":
+                case "le":
+                case "p":
+                    return (out, event, message) -> out.append(event.level.name());
+                case "thread":
+                case "t":
+                    return (out, event, message) -> out.append(event.threadName == null ? "" : event.threadName);
+                case "logger":
+                case "lo":
+                case "c":
+                    return (out, event, message) -> out.append(event.loggerName == null ? "" : event.loggerName);
+                case "msg":
+                case "message":
+                case "m":
+                    return (out, event, message) -> out.append(message);
+                case "X":
+                case "mdc":
+                    return option == null ? PatternLogFormatter::appendContext : (out, event, message) -> {
+                        String value = event.context.get(option);
+                        if (value != null) {
+                            out.append(value);
+                        }
+                    };
+                case "kv":
+                    return KEY_VALUES;
+                case "n":
+                    return null;
+                default:
+                    throw new IllegalArgumentException("Unknown conversion word '%" + word + "' in pattern: " + pattern);
+            }
+        }
+
+        // Method to append every context entry as "key=value, key=value"
+        private static void appendContext(StringBuilder out, LogEvent event, CharSequence message) {
+            ContextMap context = event.context;
+            for (int i = 0; i < context.size(); i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(context.key(i)).append('=').append(context.value(i));
+            }
+        }
+
+        // Method to build the date converter; each converter owns its own per-second cache
+        private static Converter dateConverter(String option) {
+            TimestampRenderer renderer;
+            if (option == null || option.equals("DEFAULT")) {
+                renderer = new TimestampRenderer(TimestampedLogFormatter.Precision.MILLIS, ' ');
+            } else if (option.equals("DEFAULT_MICROS")) {
+                renderer = new TimestampRenderer(TimestampedLogFormatter.Precision.MICROS, ' ');
+            } else if (option.equals("ISO8601")) {
+                renderer = new TimestampRenderer(TimestampedLogFormatter.Precision.MILLIS, 'T');
+            } else if (option.equals("ISO8601_MICROS")) {
+                renderer = new TimestampRenderer(TimestampedLogFormatter.Precision.MICROS, 'T');
+            } else {
+                throw new IllegalArgumentException("Unsupported date format: " + option);
+            }
+            return (out, event, message) -> renderer.appendTo(out, event.timestampNanos);
+        }
+
+        // Method to build a converter appending constant text
+        private static Converter literal(String text) {
+            return (out, event, message) -> out.append(text);
+        }
+
+        // Method to wrap a converter with width handling, applied in place on the output buffer
+        private static Converter padded(Converter converter, boolean leftAlign, int minWidth, int maxWidth) {
+            return (out, event, message) -> {
+                int start = out.length();
+                converter.format(out, event, message);
+                int length = out.length() - start;
+                if (length > maxWidth) {
+                    out.delete(start, start + length - maxWidth); // Keep the end, like logback does
+                } else if (length < minWidth) {
+                    if (leftAlign) {
+                        for (int pad = length; pad < minWidth; pad++) {
+                            out.append(' ');
+                        }
+                    } else {
+                        for (int pad = length; pad < minWidth; pad++) {
+                            out.insert(start, ' ');
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    // JSON lines formatter for log shippers: {"@timestamp":"...","level":"INFO","logger":"...","thread":"...",
+    // "message":"..."}. Keys are escaped and encoded once at construction, level values are precomputed, and
+    // the encoder writes straight into the logger's byte buffer with an ASCII fast path for escaping, so an
+    // event costs no intermediate strings or builders. Timestamps are ISO 8601 in UTC with a 'Z' suffix.
+    // Selected MDC keys are appended as extra top-level fields when the event's context has them, followed by
+    // the event's key/value pairs with numbers and booleans as JSON literals.
+    static class JsonLogFormatter implements ByteLogFormatter {
+        // Longest JSON escape of a single char (\u001f); non-ASCII chars need at most 3 UTF-8 bytes per char
+        private static final int MAX_ESCAPED_BYTES = 6;
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[][] LEVEL_VALUES = new byte[LogLevel.values().length][];
+
+        static {
+            for (LogLevel level : LogLevel.values()) {
+                LEVEL_VALUES[level.ordinal()] = ('"' + level.name() + '"').getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        private final TimestampRenderer timestamps =
+                new TimestampRenderer(TimestampedLogFormatter.Precision.MILLIS, 'T', TimeZone.getTimeZone("UTC"));
+        // Pre-encoded '{"key":"' / ',"key":' fragments, written with a single array copy each
+        private final byte[] timestampKey;
+        private final byte[] levelKey;
+        private final byte[] loggerKey;
+        private final byte[] threadKey;
+        private final byte[] messageKey;
+        private final String[] contextKeys; // MDC keys rendered as fields
+        private final byte[][] contextFields; // Pre-encoded '","key":"' fragment of each context key
+        private final int fixedBytes; // Bytes of everything but the escaped variable fields
+
+        // Constructor with the field names most log pipelines expect
+        public JsonLogFormatter() {
+            this(Collections.emptyList());
+        }
+
+        // Constructor with the default field names that also renders the given MDC keys
+        public JsonLogFormatter(List<String> contextKeys) {
+            this("@timestamp", "level", "logger", "thread", "message", contextKeys);
+        }
+
+        // Constructor with custom field names
+        public JsonLogFormatter(String timestampKey, String levelKey, String loggerKey, String threadKey,
+                                String messageKey) {
+            this(timestampKey, levelKey, loggerKey, threadKey, messageKey, Collections.emptyList());
+        }
+
+        // Constructor with custom field names and the MDC keys to render
+        public JsonLogFormatter(String timestampKey, String levelKey, String loggerKey, String threadKey,
+                                String messageKey, List<String> contextKeys) {
+            this.timestampKey = key("{", timestampKey, "\"");
+            this.levelKey = key("Z\",", levelKey, "");
+            this.loggerKey = key(",", loggerKey, "\"");
+            this.threadKey = key("\",", threadKey, "\"");
+            this.messageKey = key("\",", messageKey, "\"");
+            this.contextKeys = contextKeys.toArray(new String[0]);
+            this.contextFields = new byte[this.contextKeys.length][];
+            int contextBytes = 0;
+            for (int i = 0; i < this.contextKeys.length; i++) {
+                contextFields[i] = key("\",", this.contextKeys[i], "\"");
+                contextBytes += contextFields[i].length;
+            }
+            int longestLevel = 0;
+            for (byte[] value : LEVEL_VALUES) {
+                longestLevel = Math.max(longestLevel, value.length);
+            }
+            // Timestamp with millis (plus slack for years past 9999), closing quote and brace
+            this.fixedBytes = this.timestampKey.length + this.levelKey.length + this.loggerKey.length
+                    + this.threadKey.length + this.messageKey.length + longestLevel + 32 + 2 + contextBytes;
+        }
+
+        // Method to pre-encode one key with the JSON punctuation around it
+        private static byte[] key(String prefix, String name, String suffix) {
+            StringBuilder out = new StringBuilder(prefix).append('"');
+            escape(out, name);
+            out.append("\":").append(suffix);
+            return out.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        // Implementation of the format method for callers without an event
+        @Override
+        public String format(LogLevel level, String message) {
+            LogEvent event = new LogEvent();
+            event.level = level;
+            event.loggerName = Logger.ROOT_NAME;
+            event.threadName = Thread.currentThread().getName();
+            event.context = MDC.getContext();
+            event.timestampNanos = LogClock.currentTimeNanos();
+            StringBuilder out = new StringBuilder(message.length() + fixedBytes + 16);
+            formatTo(out, event, message);
+            return out.toString();
+        }
+
+        // Implementation for callers that only know level and time; logger and thread render as empty
+        @Override
+        public void formatTo(StringBuilder out, LogLevel level, CharSequence message, long epochNanos) {
+            LogEvent event = new LogEvent();
+            event.level = level;
+            event.timestampNanos = epochNanos;
+            formatTo(out, event, message);
+        }
+
+        // Char path, used when the line is not going straight to bytes; produces the same text as encodeTo
+        @Override
+        public void formatTo(StringBuilder out, LogEvent event, CharSequence message) {
+            appendAscii(out, timestampKey);
+            timestamps.appendTo(out, event.timestampNanos);
+            appendAscii(out, levelKey);
+            appendAscii(out, LEVEL_VALUES[event.level.ordinal()]);
+            appendAscii(out, loggerKey);
+            escape(out, event.loggerName);
+            appendAscii(out, threadKey);
+            escape(out, event.threadName);
+            appendAscii(out, messageKey);
+            escape(out, message);
+            for (int i = 0; i < contextKeys.length; i++) {
+                String value = event.context.get(contextKeys[i]);
+                if (value != null) {
+                    appendAscii(out, contextFields[i]);
+                    escape(out, value);
+                }
+            }
+            out.append('"');
+            KeyValues keyValues = event.keyValues;
+            for (int i = 0; i < keyValues.size(); i++) {
+                out.append(",\"");
+                escape(out, keyValues.key(i));
+                out.append("\":");
+                boolean quoted = isQuoted(keyValues, i);
+                if (quoted) {
+                    out.append('"');
+                }
+                if (keyValues.type(i) == KeyValues.OBJECT && keyValues.objectValue(i) == null) {
+                    out.append("null");
+                } else {
+                    escape(out, keyValues.valueText(i));
+                }
+                if (quoted) {
+                    out.append('"');
+                }
+            }
+            out.append('}');
+        }
+
+        // Method to append pre-encoded punctuation; keys are ASCII in practice, other keys go through UTF-8 decoding
+        private static void appendAscii(StringBuilder out, byte[] bytes) {
+            for (byte b : bytes) {
+                if (b < 0) {
+                    out.append(new String(bytes, StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            for (byte b : bytes) {
+                out.append((char) b);
+            }
+        }
+
+        @Override
+        public int maxBytes(LogEvent event, CharSequence message) {
+            int variable = message.length()
+                    + (event.loggerName == null ? 0 : event.loggerName.length())
+                    + (event.threadName == null ? 0 : event.threadName.length());
+            for (String contextKey : contextKeys) {
+                String value = event.context.get(contextKey);
+                variable += value == null ? 0 : value.length();
+            }
+            KeyValues keyValues = event.keyValues;
+            int keyValueBytes = 0;
+            for (int i = 0; i < keyValues.size(); i++) {
+                // ,"key":"value" with both parts escaped; non-text values are at most that long
+                variable += keyValues.key(i).length() + keyValues.valueText(i).length();
+                keyValueBytes += 6;
+            }
+            return fixedBytes + keyValueBytes + variable * MAX_ESCAPED_BYTES;
+        }
+
+        @Override
+        public void encodeTo(ByteBuffer out, LogEvent event, CharSequence message) {
+            byte[] array = out.array();
+            int offset = out.arrayOffset() + out.position();
+            offset = put(array, offset, timestampKey);
+            offset = timestamps.appendTo(array, offset, event.timestampNanos);
+            offset = put(array, offset, levelKey);
+            offset = put(array, offset, LEVEL_VALUES[event.level.ordinal()]);
+            offset = put(array, offset, loggerKey);
+            offset = escape(event.loggerName, array, offset);
+            offset = put(array, offset, threadKey);
+            offset = escape(event.threadName, array, offset);
+            offset = put(array, offset, messageKey);
+            offset = escape(message, array, offset);
+            for (int i = 0; i < contextKeys.length; i++) {
+                String value = event.context.get(contextKeys[i]);
+                if (value != null) {
+                    offset = put(array, offset, contextFields[i]);
+                    offset = escape(value, array, offset);
+                }
+            }
+            array[offset++] = '"';
+            KeyValues keyValues = event.keyValues;
+            for (int i = 0; i < keyValues.size(); i++) {
+                array[offset++] = ',';
+                array[offset++] = '"';
+                offset = escape(keyValues.key(i), array, offset);
+                array[offset++] = '"';
+                array[offset++] = ':';
+                boolean quoted = isQuoted(keyValues, i);
+                if (quoted) {
+                    array[offset++] = '"';
+                }
+                offset = keyValues.type(i) == KeyValues.OBJECT && keyValues.objectValue(i) == null
+                        ? put(array, offset, NULL) : escape(keyValues.valueText(i), array, offset);
+                if (quoted) {
+                    array[offset++] = '"';
+                }
+            }
+            array[offset++] = '}';
+            out.position(offset - out.arrayOffset());
+        }
+
+        @Override
+        public boolean rendersKeyValues() {
+            return true;
+        }
+
+        // Method to decide whether a key/value is written as a JSON string rather than a literal;
+        // NaN and infinities have no JSON number form
+        private static boolean isQuoted(KeyValues keyValues, int index) {
+            switch (keyValues.type(index)) {
+                case KeyValues.LONG:
+                case KeyValues.BOOLEAN:
+                    return false;
+                case KeyValues.DOUBLE:
+                    return !Double.isFinite(keyValues.doubleValue(index));
+                default:
+                    return keyValues.objectValue(index) != null;
+            }
+        }
+
+        // Method to copy pre-encoded bytes into the array at offset
+        private static int put(byte[] out, int offset, byte[] bytes) {
+            System.arraycopy(bytes, 0, out, offset, bytes.length);
+            return offset + bytes.length;
+        }
+
+        // Method to write a JSON string body as UTF-8; returns the offset after the last byte
+        private static int escape(CharSequence in, byte[] out, int offset) {
+            if (in == null) {
+                return offset;
+            }
+            int length = in.length();
+            int i = 0;
+            while (i < length) {
+                char c = in.charAt(i);
+                if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                    out[offset++] = (byte) c; // Fast path: printable ASCII is copied as is
+                    i++;
+                } else if (c >= 0x80) {
+                    // Encode the whole non-ASCII run at once so surrogate pairs stay together
+                    int end = i + 1;
+                    while (end < length && in.charAt(end) >= 0x80) {
+                        end++;
+                    }
+                    offset = Utf8Encoder.encode(in, i, end, out, offset);
+                    i = end;
+                } else {
+                    out[offset++] = '\\';
+                    switch (c) {
+                        case '"':
+                        case '\\':
+                            out[offset++] = (byte) c;
+                            break;
+                        case '\n':
+                            out[offset++] = 'n';
+                            break;
+                        case '\r':
+                            out[offset++] = 'r';
+                            break;
+                        case '\t':
+                            out[offset++] = 't';
+                            break;
+                        default:
+                            out[offset++] = 'u';
+                            out[offset++] = '0';
+                            out[offset++] = '0';
+                            out[offset++] = HEX[c >> 4];
+                            out[offset++] = HEX[c & 0xF];
+                    }
+                    i++;
+                }
+            }
+            return offset;
+        }
+
+        // Method to append a JSON string body; the char counterpart of the byte escaping above
+        private static void escape(StringBuilder out, CharSequence in) {
+            if (in == null) {
+                return;
+            }
+            for (int i = 0, length = in.length(); i < length; i++) {
+                char c = in.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                out.append('\\');
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        out.append(c);
+                        break;
+                    case '\n':
+                        out.append('n');
+                        break;
+                    case '\r':
+                        out.append('r');
+                        break;
+                    case '\t':
+                        out.append('t');
+                        break;
+                    default:
+                        out.append("u00").append((char) HEX[c >> 4]).append((char) HEX[c & 0xF]);
+                }
+            }
+        }
+    }
+
+    // Wall clock with sub-millisecond resolution for event timestamps
+    static final class LogClock {
+        private LogClock() {
+        }
+
+        // Method to read the current time in nanoseconds since the epoch (valid until the year 2262)
+        static long currentTimeNanos() {
+            Instant now = Instant.now(); // Scalar-replaced by the JIT once inlined
+            return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        }
+    }
+
+    // Interface for log appenders
+    // Implementations must be thread-safe: in synchronous mode they are called from every logging thread
+    interface Appender {
+        // Method to append log messages
+        void append(String logMessage);
+
+        // Method to append a message held in the logger's reusable buffer; the buffer is overwritten
+        // after the call returns, so appenders that keep the text must copy it
+        default void append(CharSequence logMessage) {
+            append(logMessage.toString());
+        }
+
+        // Level-aware variant used by the logger, for appenders whose handling depends on severity
+        default void append(LogLevel level, CharSequence logMessage) {
+            append(logMessage);
+        }
+
+        // Method to release resources; called once by Logger.close after pending events are written
+        default void close() {
+        }
+    }
+
+    // Appender that consumes encoded bytes instead of Strings; the logger encodes each line once
+    // into a reusable buffer and hands the same bytes to every byte appender
+    interface ByteAppender extends Appender {
+        // Method to write one UTF-8 encoded log line, terminated by '\n', from position to limit.
+        // The buffer is reused for the next event, so it must not be retained after the call.
+        void append(ByteBuffer encodedLine);
+
+        // Level-aware variant used by the logger, for appenders whose flushing depends on severity
+        default void append(LogLevel level, ByteBuffer encodedLine) {
+            append(encodedLine);
+        }
+
+        // Fallback for callers that only have a String; allocates, so the logger never uses it
+        @Override
+        default void append(String logMessage) {
+            append(ByteBuffer.wrap((logMessage + '\n').getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    // Appender that consumes the captured event itself instead of a formatted line, so it can store the
+    // template and arguments and leave formatting to whoever reads the output. It is called on the thread
+    // dispatching the event (the writer thread in async mode) and must not keep the event, whose slot is reused.
+    // Lines that reach it without an event, e.g. through an AsyncAppender, arrive through the text methods.
+    interface EventAppender extends Appender {
+        // Method to write the event; returns the number of bytes produced, for the appender metrics
+        int append(LogEvent event);
+    }
+
+    // Factory for creating appenders
+    static class AppenderFactory {
+        // Static method to create an Appender based on the specified type
+        public static Appender createAppender(String type, String filePath) {
+            // Switch statement to determine which type of appender to create
+            switch (type.toLowerCase()) {
+                // Create a new ConsoleAppender if the type is "console"
+                case "console":
+                    return new ConsoleAppender();
+                case "stdout":
+                    return new ChannelConsoleAppender();
+                case "file":
+                    return new FileAppender(filePath);
+                case "channel":
+                    return new ChannelFileAppender(filePath);
+                case "rolling":
+                    return new RollingFileAppender(filePath);
+                case "mmap":
+                    return new MappedFileAppender(filePath);
+                case "binary":
+                    return new BinaryLogAppender(filePath);
+                default:
+                    throw new IllegalArgumentException("Unknown appender type: " + type);
+            }
+        }
+    }
+
+    // Console appender implementation
+    static class ConsoleAppender implements Appender {
+        @Override
+        public void append(String logMessage) {
+            System.out.println(logMessage);
+        }
+    }
+
+    // Console appender for containers where stdout is the log sink: lines arrive pre-encoded and are batched
+    // into one write(2) on a stream over the stdout descriptor, bypassing System.out's lock, charset
+    // encoder and per-line flush. Batches up to PIPE_BUF (4 KiB) stay whole even if other code writes to
+    // stdout too; larger ones may interleave with such writes between lines.
+    static class ChannelConsoleAppender implements ByteAppender, FlushCounter {
+        // Shared by every instance; closing it would close descriptor 1 for the whole process. A stream
+        // rather than its FileChannel: a channel write from an interrupted thread closes the descriptor.
+        private static final FileOutputStream STDOUT = new FileOutputStream(FileDescriptor.out);
+
+        private final FlushPolicy policy; // Triggers for writing the buffer out
+        private final ByteBuffer buffer; // Pending bytes, written in one call; on the heap for the stream
+        private final LongAdder flushCount = new LongAdder(); // Buffer writes to stdout
+        private int pendingEvents; // Events buffered since the last write
+        private ScheduledFuture<?> flushTask; // Periodic flush, null when the policy has no delay
+        private boolean closed; // Whether close has run; later lines go straight through
+        private boolean failed; // Whether a write failed, e.g. on a closed pipe; reported only once
+
+        // Constructor using a 64 KiB buffer, writing at least every 200 ms and on every ERROR
+        public ChannelConsoleAppender() {
+            this(64 * 1024, new FlushPolicy(0, 200L, LogLevel.ERROR));
+        }
+
+        // Constructor that takes the buffer size in bytes and the flush policy; stdout cannot be fsynced,
+        // so the policy must not have a durable level
+        public ChannelConsoleAppender(int bufferSize, FlushPolicy policy) {
+            if (policy.durableLevel != null) {
+                throw new IllegalArgumentException("Console output cannot be made durable");
+            }
+            this.policy = policy;
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            if (policy.maxDelayMillis > 0) {
+                flushTask = ChannelFileAppender.flushTimer.scheduleWithFixedDelay(this::flush,
+                        policy.maxDelayMillis, policy.maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // Implementation of the append method for callers that do not know the level
+        @Override
+        public void append(ByteBuffer encodedLine) {
+            append(LogLevel.INFO, encodedLine);
+        }
+
+        // Implementation of the append method: copy into the buffer and write only when a trigger fires
+        @Override
+        public synchronized void append(LogLevel level, ByteBuffer encodedLine) {
+            if (encodedLine.remaining() > buffer.remaining()) {
+                writeBuffer(); // Buffer full: make room before copying
+            }
+            if (closed || encodedLine.remaining() > buffer.capacity()) {
+                write(encodedLine);
+            } else {
+                buffer.put(encodedLine);
+            }
+            pendingEvents++;
+            if ((policy.immediateLevel != null && level.ordinal() >= policy.immediateLevel.ordinal())
+                    || (policy.maxPendingEvents > 0 && pendingEvents >= policy.maxPendingEvents)) {
+                writeBuffer();
+            }
+        }
+
+        // Method to get the number of batches written to stdout
+        @Override
+        public long getFlushCount() {
+            return flushCount.sum();
+        }
+
+        // Method to write every buffered byte to stdout
+        public synchronized void flush() {
+            writeBuffer();
+        }
+
+        // Method to drain the buffer to stdout; callers hold the monitor
+        private void writeBuffer() {
+            if (buffer.position() > 0) {
+                buffer.flip();
+                write(buffer);
+                buffer.clear(); // Emptied even after a failed write, the bytes cannot be delivered anyway
+            }
+            pendingEvents = 0;
+        }
+
+        // Method to write the bytes between position and limit. Like System.out, a broken stdout (e.g. a
+        // closed pipe) must not fail the application's log calls, so the first error is reported and the
+        // output dropped.
+        private void write(ByteBuffer bytes) {
+            try {
+                if (bytes.hasArray()) {
+                    STDOUT.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                    bytes.position(bytes.limit());
+                } else {
+                    byte[] copy = new byte[bytes.remaining()];
+                    bytes.get(copy);
+                    STDOUT.write(copy);
+                }
+                flushCount.increment();
+            } catch (IOException e) {
+                if (!failed) {
+                    failed = true;
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Method to write pending bytes and stop the timer; stdout itself stays open
+        @Override
+        public synchronized void close() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+            }
+            writeBuffer();
+            closed = true;
+        }
+    }
+
+    // File appender implementation
+    static class FileAppender implements ByteAppender {
+        // Output stream opened in append mode; lines arrive already encoded so no Writer is needed
+        private FileOutputStream output;
+
+        // Constructor that takes a file path and opens it for appending
+        public FileAppender(String filePath) {
+            try {
+                output = new FileOutputStream(filePath, true);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Implementation of the append method to write the encoded log line straight to the file.
+        // The stream is written directly rather than through its channel: a channel write from an
+        // interrupted thread would close the file for every later line.
+        @Override
+        public synchronized void append(ByteBuffer encodedLine) {
+            if (output != null) {
+                try {
+                    // One write per line, so every message reaches the file as soon as it is logged
+                    if (encodedLine.hasArray()) {
+                        output.write(encodedLine.array(), encodedLine.arrayOffset() + encodedLine.position(),
+                                encodedLine.remaining());
+                        encodedLine.position(encodedLine.limit());
+                    } else {
+                        byte[] bytes = new byte[encodedLine.remaining()];
+                        encodedLine.get(bytes);
+                        output.write(bytes);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        // Method to close the file and release any system resources
+        @Override
+        public synchronized void close() {
+            if (output != null) {
+                try {
+                    output.close(); // Close the stream to free up resources
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // When a batching appender writes its buffer to disk; a full buffer is always written
+    static final class FlushPolicy {
+        final int maxPendingEvents; // Write after this many buffered events, 0 disables the trigger
+        final long maxDelayMillis; // Write buffered events at least this often, 0 disables the timer
+        final LogLevel immediateLevel; // Events at or above this level are written at once, null disables
+        // Events at or above this level are on disk (fsync) before append returns, null disables.
+        // Logger.log only waits for that when the logger is synchronous; async mode blocks the writer instead.
+        final LogLevel durableLevel;
+
+        FlushPolicy(int maxPendingEvents, long maxDelayMillis, LogLevel immediateLevel) {
+            this(maxPendingEvents, maxDelayMillis, immediateLevel, null);
+        }
+
+        FlushPolicy(int maxPendingEvents, long maxDelayMillis, LogLevel immediateLevel, LogLevel durableLevel) {
+            if (maxPendingEvents < 0 || maxDelayMillis < 0) {
+                throw new IllegalArgumentException("Flush thresholds must not be negative");
+            }
+            this.maxPendingEvents = maxPendingEvents;
+            this.maxDelayMillis = maxDelayMillis;
+            this.immediateLevel = immediateLevel;
+            this.durableLevel = durableLevel;
+        }
+
+        // Method to get the default policy: batch freely, write at least once a second and on every ERROR
+        static FlushPolicy defaults() {
+            return new FlushPolicy(0, 1000L, LogLevel.ERROR);
+        }
+
+        // Method to get the audit policy: like the defaults, but ERROR events are also fsynced before returning
+        static FlushPolicy durable() {
+            return new FlushPolicy(0, 1000L, LogLevel.ERROR, LogLevel.ERROR);
+        }
+    }
+
+    // Thrown to the logging thread when an event of the durable level could not be made durable. Other I/O
+    // failures are reported and the line dropped, but audit callers must learn that their event is not on disk.
+    static class LogDurabilityException extends UncheckedIOException {
+        private static final long serialVersionUID = 1L;
+
+        LogDurabilityException(IOException cause) {
+            super("Log event could not be made durable", cause);
+        }
+    }
+
+    // File appender writing through a FileChannel from a large direct buffer, one write(2) per batch
+    static class ChannelFileAppender implements ByteAppender, FlushCounter {
+        // Shared timer thread driving the time based flush of every channel appender
+        static final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "logger-flush-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        protected final Path path; // File being appended to
+        private final FlushPolicy policy; // Triggers for writing the buffer out
+        private final ByteBuffer buffer; // Pending bytes, written to the channel in one call
+        private volatile FileChannel channel; // Channel opened in append mode, read unlocked by the fsync leader
+        private int pendingEvents; // Events buffered since the last write
+        private ScheduledFuture<?> flushTask; // Periodic flush, null when the policy has no delay
+        // Group commit state, guarded by forceLock rather than the appender monitor so producers can
+        // keep writing while a force is in progress
+        private final Object forceLock = new Object();
+        private volatile long writtenBytes; // Bytes handed to the channel so far
+        private long durableBytes; // Bytes known to be on disk
+        private boolean forcing; // Whether a leader is currently inside FileChannel.force
+        private final LongAdder forceCount = new LongAdder(); // Number of fsyncs issued
+        private final LongAdder durableEvents = new LongAdder(); // Events that waited for durability
+        private final LongAdder flushCount = new LongAdder(); // Buffer writes to the channel
+
+        // Constructor using a 256 KiB buffer and the default flush policy
+        public ChannelFileAppender(String filePath) {
+            this(filePath, 256 * 1024, FlushPolicy.defaults());
+        }
+
+        // Constructor that takes a file path, the buffer size in bytes and the flush policy
+        public ChannelFileAppender(String filePath, int bufferSize, FlushPolicy policy) {
+            this.path = Paths.get(filePath);
+            this.policy = policy;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            try {
+                channel = open(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (policy.maxDelayMillis > 0) {
+                flushTask = flushTimer.scheduleWithFixedDelay(this::flushQuietly,
+                        policy.maxDelayMillis, policy.maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // Implementation of the append method for callers that do not know the level
+        @Override
+        public void append(ByteBuffer encodedLine) {
+            append(LogLevel.INFO, encodedLine);
+        }
+
+        // Implementation of the append method: copy into the buffer and write only when a trigger fires.
+        // Durable events additionally wait for a group commit covering their bytes.
+        @Override
+        public void append(LogLevel level, ByteBuffer encodedLine) {
+            long durableTarget = write(level, encodedLine);
+            if (durableTarget >= 0) {
+                awaitDurable(durableTarget); // Outside the monitor so other producers can join the same fsync
+            }
+        }
+
+        // Method to copy a line in under the monitor, returning the byte count a durable line must wait for
+        // with awaitDurable, or -1. Callers encoding under their own lock wait only after releasing it.
+        long write(LogLevel level, ByteBuffer encodedLine) {
+            long durableTarget = -1L;
+            boolean durable = policy.durableLevel != null && level.ordinal() >= policy.durableLevel.ordinal();
+            synchronized (this) {
+                if (channel == null) {
+                    return -1L;
+                }
+                try {
+                    if (encodedLine.remaining() > buffer.remaining()) {
+                        writeBuffer(); // Buffer full: make room before copying
+                    }
+                    if (encodedLine.remaining() > buffer.capacity()) {
+                        // Line larger than the whole buffer goes straight to the channel
+                        beforeWrite(encodedLine.remaining());
+                        writeFully(encodedLine);
+                    } else {
+                        buffer.put(encodedLine);
+                    }
+                    pendingEvents++;
+                    boolean urgent = durable
+                            || (policy.immediateLevel != null && level.ordinal() >= policy.immediateLevel.ordinal());
+                    if (urgent || (policy.maxPendingEvents > 0 && pendingEvents >= policy.maxPendingEvents)) {
+                        writeBuffer();
+                    }
+                    if (durable) {
+                        durableTarget = writtenBytes;
+                    }
+                } catch (IOException e) {
+                    throw durable ? new LogDurabilityException(e) : new UncheckedIOException(e);
+                }
+            }
+            return durableTarget;
+        }
+
+        // Method to block until the first target bytes are on disk. The first waiter becomes the leader and
+        // forces everything written so far; threads arriving meanwhile wait and are covered by the next force,
+        // so N concurrent durable events cost about two fsyncs rather than N.
+        void awaitDurable(long target) {
+            durableEvents.increment();
+            while (true) {
+                long covered;
+                synchronized (forceLock) {
+                    while (forcing && durableBytes < target) {
+                        try {
+                            forceLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new LogDurabilityException(
+                                    new InterruptedIOException("Interrupted while waiting for log durability"));
+                        }
+                    }
+                    if (durableBytes >= target) {
+                        return; // A leader's force already covered these bytes
+                    }
+                    forcing = true; // This thread leads the next group commit
+                    covered = writtenBytes; // Every byte counted here has already been written
+                }
+                boolean forced = false;
+                FileChannel fileChannel = channel;
+                try {
+                    if (fileChannel == null) {
+                        return; // Closed meanwhile; close() forces on its own
+                    }
+                    fileChannel.force(false);
+                    forceCount.increment();
+                    forced = true;
+                } catch (ClosedByInterruptException e) {
+                    // This thread was interrupted; the interrupt also closed the channel for everyone else
+                    replaceClosed(fileChannel);
+                    Thread.currentThread().interrupt();
+                    throw new LogDurabilityException(e);
+                } catch (ClosedChannelException e) {
+                    FileChannel current = channel;
+                    if (current == null || current == fileChannel || !current.isOpen()) {
+                        throw new LogDurabilityException(e);
+                    }
+                    // Replaced meanwhile: a rolled over file was forced before it was closed, and a channel
+                    // reopened after an interrupt is the same file, so a force on the new channel covers the rest
+                } catch (IOException e) {
+                    throw new LogDurabilityException(e);
+                } finally {
+                    synchronized (forceLock) {
+                        if (forced) {
+                            durableBytes = Math.max(durableBytes, covered);
+                        }
+                        forcing = false;
+                        forceLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        // Method to reopen the file when the given channel was closed by an interrupt, unless another thread
+        // already replaced it
+        private synchronized void replaceClosed(FileChannel closed) {
+            if (channel == closed) {
+                try {
+                    channel = open(path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Method to get the number of batches written to the channel
+        @Override
+        public long getFlushCount() {
+            return flushCount.sum();
+        }
+
+        // Method to get the number of fsyncs issued; compare with getDurableEventCount to see the batching
+        public long getForceCount() {
+            return forceCount.sum();
+        }
+
+        // Method to get the number of events that waited for durability
+        public long getDurableEventCount() {
+            return durableEvents.sum();
+        }
+
+        // Method to write every buffered byte to the file
+        public synchronized void flush() throws IOException {
+            if (channel != null) {
+                writeBuffer();
+            }
+        }
+
+        // Timer callback; errors are reported but must not cancel the periodic task
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Method to open a file for appending
+        private static FileChannel open(Path file) throws IOException {
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        // Hook called under the monitor before a batch of whole lines is written, e.g. to roll the file
+        protected void beforeWrite(int bytes) throws IOException {
+        }
+
+        // Method to move the current file to the given path and continue in a fresh file; callers hold the
+        // monitor, so no line can be half written to either file
+        protected void switchFile(Path rolledFile) throws IOException {
+            FileChannel old = channel;
+            if (policy.durableLevel != null) {
+                // Group commit waiters retry on the new file, so bytes written to this one must be on disk first;
+                // without a durable level nothing waits and the rollover does not pay for an fsync
+                old.force(false);
+            }
+            old.close();
+            Files.move(path, rolledFile, StandardCopyOption.ATOMIC_MOVE);
+            channel = open(path);
+        }
+
+        // Method to drain the buffer to the channel; callers hold the monitor
+        private void writeBuffer() throws IOException {
+            if (buffer.position() > 0) {
+                beforeWrite(buffer.position());
+                buffer.flip();
+                writeFully(buffer);
+                buffer.clear();
+                flushCount.increment();
+            }
+            pendingEvents = 0;
+        }
+
+        // Method to write the bytes between position and limit, retrying partial writes. A write from an
+        // interrupted thread closes the channel for every thread; it is reopened and the write retried with
+        // the flag cleared, and the interrupt is restored for the caller afterwards.
+        private void writeFully(ByteBuffer bytes) throws IOException {
+            boolean interrupted = false;
+            try {
+                while (bytes.hasRemaining()) {
+                    try {
+                        writtenBytes += channel.write(bytes); // Only written under the monitor
+                    } catch (ClosedByInterruptException e) {
+                        interrupted |= Thread.interrupted();
+                        channel = open(path);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // Method to write pending bytes, stop the timer and close the channel
+        @Override
+        public synchronized void close() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+            }
+            if (channel != null) {
+                try {
+                    writeBuffer();
+                    if (policy.durableLevel != null) {
+                        channel.force(false); // Durable mode: nothing written may be lost after close
+                    }
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                channel = null;
+            }
+        }
+    }
+
+    // Channel file appender that rolls the file over by size and age, keeping a fixed number of gzipped
+    // segments. Rollover is a rename plus channel swap under the appender monitor; compression and
+    // cleanup run on a shared low-priority thread so they never stall logging.
+    static class RollingFileAppender extends ChannelFileAppender {
+        // Shared background thread compressing rolled segments and deleting old ones
+        private static final ExecutorService compressor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "logger-roll-compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        private final long maxBytes; // Roll once the file would exceed this size, 0 disables
+        private final long maxAgeMillis; // Roll once the file is this old, 0 disables
+        private final int maxBackups; // Rolled segments kept on disk
+        private long currentSize; // Bytes in the active file
+        private long segmentStartMillis; // When the active file was started
+        private long nextIndex; // Suffix of the next rolled segment, increasing forever
+
+        // Constructor rolling at 100 MiB or once a day, keeping seven segments
+        public RollingFileAppender(String filePath) {
+            this(filePath, 100L * 1024 * 1024, TimeUnit.DAYS.toMillis(1), 7);
+        }
+
+        // Constructor that takes the size and age triggers and the number of segments to keep
+        public RollingFileAppender(String filePath, long maxBytes, long maxAgeMillis, int maxBackups) {
+            this(filePath, maxBytes, maxAgeMillis, maxBackups, FlushPolicy.defaults());
+        }
+
+        // Constructor that also takes the flush policy of the underlying channel appender
+        public RollingFileAppender(String filePath, long maxBytes, long maxAgeMillis, int maxBackups,
+                                   FlushPolicy policy) {
+            super(filePath, 256 * 1024, policy);
+            this.maxBytes = maxBytes;
+            this.maxAgeMillis = maxAgeMillis;
+            this.maxBackups = maxBackups;
+            synchronized (this) {
+                try {
+                    currentSize = Files.exists(path) ? Files.size(path) : 0L;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                segmentStartMillis = System.currentTimeMillis();
+                nextIndex = highestExistingIndex() + 1;
+            }
+        }
+
+        // Roll before the batch if it would overflow the file or the file is too old; never rolls an empty file
+        @Override
+        protected void beforeWrite(int bytes) throws IOException {
+            if (currentSize > 0) {
+                boolean tooBig = maxBytes > 0 && currentSize + bytes > maxBytes;
+                boolean tooOld = maxAgeMillis > 0 && System.currentTimeMillis() - segmentStartMillis >= maxAgeMillis;
+                if (tooBig || tooOld) {
+                    Path rolled = path.resolveSibling(path.getFileName() + "." + nextIndex++);
+                    switchFile(rolled);
+                    currentSize = 0L;
+                    segmentStartMillis = System.currentTimeMillis();
+                    compressor.execute(() -> compressAndPrune(rolled));
+                }
+            }
+            currentSize += bytes;
+        }
+
+        // Method to gzip a rolled segment and delete segments beyond the retention count (compressor thread)
+        private void compressAndPrune(Path rolled) {
+            Path compressed = rolled.resolveSibling(rolled.getFileName() + ".gz");
+            Path partial = rolled.resolveSibling(rolled.getFileName() + ".gz.tmp");
+            try {
+                try (InputStream in = Files.newInputStream(rolled);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+                    in.transferTo(out);
+                }
+                Files.move(partial, compressed, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(rolled);
+            } catch (IOException e) {
+                e.printStackTrace(); // Keep the uncompressed segment rather than losing it
+            }
+            long oldestKept = highestExistingIndex() - maxBackups + 1;
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory())) {
+                for (Path segment : segments) {
+                    long index = segmentIndex(segment);
+                    if (index >= 0 && index < oldestKept) {
+                        Files.deleteIfExists(segment);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Method to find the highest suffix among existing segments, or 0 if there are none
+        private long highestExistingIndex() {
+            long highest = 0L;
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory())) {
+                for (Path segment : segments) {
+                    highest = Math.max(highest, segmentIndex(segment));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return highest;
+        }
+
+        // Method to parse the suffix of "<name>.<n>" or "<name>.<n>.gz", returning -1 for other files
+        private long segmentIndex(Path candidate) {
+            String name = candidate.getFileName().toString();
+            String prefix = path.getFileName() + ".";
+            if (!name.startsWith(prefix)) {
+                return -1L;
+            }
+            String suffix = name.substring(prefix.length());
+            if (suffix.endsWith(".gz")) {
+                suffix = suffix.substring(0, suffix.length() - 3);
+            }
+            if (suffix.isEmpty() || suffix.length() > 18) {
+                return -1L;
+            }
+            for (int i = 0; i < suffix.length(); i++) {
+                if (!Character.isDigit(suffix.charAt(i))) {
+                    return -1L;
+                }
+            }
+            return Long.parseLong(suffix);
+        }
+
+        // Method to get the directory holding the log file and its segments
+        private Path directory() {
+            Path parent = path.toAbsolutePath().getParent();
+            return parent != null ? parent : Paths.get(".");
+        }
+    }
+
+    // File appender copying lines into a memory-mapped region of the file, so writes are plain memory
+    // stores and the kernel writes dirty pages back. The next region is mapped when the current one fills.
+    static class MappedFileAppender implements ByteAppender {
+        private final Path path; // File being written
+        private final long regionSize; // Bytes mapped at a time
+        private FileChannel channel; // Channel used to map regions and to trim the file on close
+        private MappedByteBuffer region; // Currently mapped window of the file
+        private long regionStart; // File offset of the first byte of the current region
+
+        // Constructor mapping 16 MiB regions
+        public MappedFileAppender(String filePath) {
+            this(filePath, 16L * 1024 * 1024);
+        }
+
+        // Constructor that takes a file path and the size of each mapped region
+        public MappedFileAppender(String filePath, long regionSize) {
+            this.path = Paths.get(filePath);
+            this.regionSize = regionSize;
+            try {
+                channel = open(path);
+                map(findEnd(), regionSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+                channel = null;
+            }
+        }
+
+        // Implementation of the append method: a bounds check and a memory copy, remapping when full
+        @Override
+        public synchronized void append(ByteBuffer encodedLine) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (encodedLine.remaining() > region.remaining()) {
+                    map(regionStart + region.position(), Math.max(regionSize, encodedLine.remaining()));
+                }
+                region.put(encodedLine);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Method to map a new region starting at the given offset; the file grows to cover it. Mapping from an
+        // interrupted thread closes the channel, so it is reopened and the mapping retried with the flag
+        // cleared; regions mapped earlier stay valid. The interrupt is restored for the caller.
+        private void map(long start, long size) throws IOException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+                        regionStart = start;
+                        return;
+                    } catch (ClosedByInterruptException e) {
+                        interrupted |= Thread.interrupted();
+                        channel = open(path);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // Method to open the file for mapping
+        private static FileChannel open(Path file) throws IOException {
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        // Method to find where the previous run stopped writing: the file length after a clean close,
+        // or the last non-zero byte if the process died while a region was still zero padded
+        private long findEnd() throws IOException {
+            long size = channel.size();
+            long scanStart = Math.max(0L, size - regionSize);
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size - scanStart, 64 * 1024));
+            long end = size;
+            while (end > scanStart) {
+                long chunkStart = Math.max(scanStart, end - tail.capacity());
+                tail.clear().limit((int) (end - chunkStart));
+                while (tail.hasRemaining() && channel.read(tail, chunkStart + tail.position()) >= 0) {
+                    // Read the whole chunk
+                }
+                for (int i = tail.position() - 1; i >= 0; i--) {
+                    if (tail.get(i) != 0) {
+                        return chunkStart + i + 1;
+                    }
+                }
+                end = chunkStart;
+            }
+            return end;
+        }
+
+        // Method to force dirty pages of the current region to the storage device
+        public synchronized void force() {
+            if (region != null) {
+                region.force();
+            }
+        }
+
+        // Method to cut the zero padding of the last region off the file and close it
+        @Override
+        public synchronized void close() {
+            if (channel != null) {
+                try {
+                    long end = regionStart + region.position();
+                    region.force();
+                    region = null; // The mapping itself is released when the buffer is collected
+                    channel.truncate(end);
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                channel = null;
+            }
+        }
+    }
+
+    // Dictionary assigning each distinct message template a compact integer id, so encoders and appenders can
+    // reference a template instead of shipping its text. Ids start at 1 and never change. A registry opened on
+    // a dictionary file loads the existing entries and appends each new one before its id is handed out, so
+    // ids stay stable across restarts and output written with them can be decoded later.
+    // File format: one "id<TAB>template" line per entry, with backslash, tab, CR and LF escaped.
+    static final class TemplateRegistry {
+        static final int NOT_INTERNED = 0; // Returned for templates that must be written out in full
+        private static final int MAX_TEMPLATE_LENGTH = 1024; // Longer templates are most likely built at runtime
+
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>(); // Lock-free lookups
+        private volatile String[] templates = new String[256]; // Template text indexed by id
+        private int size; // Number of interned templates, guarded by this
+        private final int maxSize; // Cap so messages built at runtime cannot grow the dictionary without bound
+        private final Path dictionary; // Backing file, null for an in-memory registry
+        private FileChannel channel; // Append channel of the backing file, null when read-only (guarded by this)
+
+        // Constructor for an in-memory registry with the default capacity
+        public TemplateRegistry() {
+            this(null, null, 65_536);
+        }
+
+        private TemplateRegistry(Path dictionary, FileChannel channel, int maxSize) {
+            this.dictionary = dictionary;
+            this.channel = channel;
+            this.maxSize = maxSize;
+        }
+
+        // Method to open a registry persisted in the given file, creating it if needed
+        public static TemplateRegistry open(Path dictionary) throws IOException {
+            return open(dictionary, 65_536);
+        }
+
+        // Method to open a persisted registry holding at most maxSize templates
+        public static TemplateRegistry open(Path dictionary, int maxSize) throws IOException {
+            TemplateRegistry registry = new TemplateRegistry(dictionary, openForAppend(dictionary), maxSize);
+            registry.load();
+            return registry;
+        }
+
+        // Method to read a persisted registry for decoding; it cannot intern new templates
+        public static TemplateRegistry read(Path dictionary) throws IOException {
+            TemplateRegistry registry = new TemplateRegistry(dictionary, null, 0);
+            registry.load();
+            return registry;
+        }
+
+        // Method to get the id of a template, interning it on first use; the common case is a single
+        // lock-free map lookup. Returns NOT_INTERNED when the registry is full or the template too long.
+        public int idOf(String template) {
+            if (template == null) {
+                return NOT_INTERNED;
+            }
+            Integer id = ids.get(template);
+            if (id != null) {
+                return id;
+            }
+            if (template.length() > MAX_TEMPLATE_LENGTH) {
+                return NOT_INTERNED;
+            }
+            return intern(template);
+        }
+
+        // Method to get the template with the given id, or null if it is unknown
+        public String template(int id) {
+            String[] current = templates;
+            return id > 0 && id < current.length ? current[id] : null;
+        }
+
+        // Method to get the number of interned templates
+        public synchronized int size() {
+            return size;
+        }
+
+        // Method to get the backing file, or null for an in-memory registry
+        public Path getDictionary() {
+            return dictionary;
+        }
+
+        // Method to open the backing file for appending entries
+        private static FileChannel openForAppend(Path dictionary) throws IOException {
+            return FileChannel.open(dictionary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        // Method to close the backing file
+        public synchronized void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Slow path: assign the next id, persisting the entry before the id becomes visible
+        private synchronized int intern(String template) {
+            Integer existing = ids.get(template);
+            if (existing != null) {
+                return existing;
+            }
+            if (size >= maxSize) {
+                return NOT_INTERNED;
+            }
+            int id = size + 1;
+            if (channel != null) {
+                boolean interrupted = false;
+                try {
+                    ByteBuffer entry = ByteBuffer.wrap(entry(id, template).getBytes(StandardCharsets.UTF_8));
+                    while (entry.hasRemaining()) {
+                        try {
+                            channel.write(entry);
+                        } catch (ClosedByInterruptException e) {
+                            // The interrupt closed the file for every caller: reopen it and retry with the flag
+                            // cleared, restoring the interrupt afterwards
+                            interrupted |= Thread.interrupted();
+                            channel = openForAppend(dictionary);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return NOT_INTERNED; // An id missing from the file could not be decoded later
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            store(id, template);
+            return id;
+        }
+
+        // Method to load the entries of the backing file; a last line cut short by a crash is ignored
+        private synchronized void load() throws IOException {
+            if (!Files.exists(dictionary)) {
+                return;
+            }
+            String content = new String(Files.readAllBytes(dictionary), StandardCharsets.UTF_8);
+            int start = 0;
+            int end;
+            while ((end = content.indexOf('\n', start)) >= 0) {
+                String line = content.substring(start, end);
+                start = end + 1;
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IOException("Malformed template dictionary entry: " + line);
+                }
+                int id = Integer.parseInt(line.substring(0, tab));
+                if (id != size + 1) {
+                    throw new IOException("Out of order template id " + id + " in " + dictionary);
+                }
+                store(id, unescape(line.substring(tab + 1)));
+            }
+            if (channel != null && start < content.length()) {
+                // Drop the partial entry so the next one starts on a fresh line
+                channel.truncate(content.substring(0, start).getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+
+        // Method to record an entry in memory; the caller holds the monitor
+        private void store(int id, String template) {
+            String[] current = templates;
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, id + 1));
+            }
+            current[id] = template;
+            templates = current; // Volatile write publishes the entry to template(id)
+            ids.put(template, id);
+            size = id;
+        }
+
+        // Method to format one dictionary line
+        private static String entry(int id, String template) {
+            StringBuilder out = new StringBuilder(template.length() + 16).append(id).append('\t');
+            for (int i = 0; i < template.length(); i++) {
+                char c = template.charAt(i);
+                switch (c) {
+                    case '\\':
+                        out.append("\\\\");
+                        break;
+                    case '\t':
+                        out.append("\\t");
+                        break;
+                    case '\r':
+                        out.append("\\r");
+                        break;
+                    case '\n':
+                        out.append("\\n");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+            return out.append('\n').toString();
+        }
+
+        // Method to reverse the escaping of entry
+        private static String unescape(String text) {
+            if (text.indexOf('\\') < 0) {
+                return text;
+            }
+            StringBuilder out = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c != '\\' || i + 1 == text.length()) {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(++i);
+                out.append(escaped == 't' ? '\t' : escaped == 'r' ? '\r' : escaped == 'n' ? '\n' : escaped);
+            }
+            return out.toString();
+        }
+    }
+
+    // Appender storing events in a compact binary encoding instead of text, so the hot path writes a fraction
+    // of the bytes and formatting happens only when BinaryLogDecoder renders the file. Layout:
+    //   header        "LOGB" and a version byte, at the start of the file only
+    //   SESSION 0xFC  version byte and 8-byte base epoch nanos; written on every open, resets the dictionary
+    //                 and the clock. Events of the session use the layout of its version, so a file appended
+    //                 to by several releases decodes session by session.
+    //   LEGACY_SESSION 0xFE  8-byte base epoch nanos; written by versions 1 to 3, whose events use the layout of
+    //                 the version in the file header
+    //   DEFINE  0xFF  varint id and a string naming a template, logger or thread, referenced by id afterwards
+    //   TEMPLATES 0xFD  string naming a TemplateRegistry dictionary file, relative to the log file's directory;
+    //                 template references of the session are then tagged: a varint of (registry id << 1) | 1
+    //                 for a template of that registry, or (reference << 1) for text in the session dictionary
+    //                 (version 4; before that, a registry id or 0 followed by an inline string)
+    //   event         level ordinal byte, zigzag varint nanos since the previous event, template, logger and
+    //                 thread references, varint argument count and the typed arguments, then (version 2) a
+    //                 varint MDC entry count and each entry as a key reference and a value string, then
+    //                 (version 3) a varint key/value count and each pair as a key reference and a typed value
+    // A string is a varint UTF-8 length and the bytes; a reference is a varint id, or 0 followed by an inline
+    // string. An argument is a type byte followed by a zigzag varint for integral types, the IEEE bits for
+    // floating point types and a string for everything else (rendered with String.valueOf).
+    static class BinaryLogAppender implements EventAppender {
+        static final byte[] MAGIC = {'L', 'O', 'G', 'B'};
+        static final int VERSION = 4;
+        static final int SESSION = 0xFC;
+        static final int TEMPLATES = 0xFD;
+        static final int LEGACY_SESSION = 0xFE;
+        static final int DEFINE = 0xFF;
+        // Argument type bytes
+        static final int ARG_NULL = 0;
+        static final int ARG_STRING = 1;
+        static final int ARG_INT = 2;
+        static final int ARG_LONG = 3;
+        static final int ARG_DOUBLE = 4;
+        static final int ARG_FLOAT = 5;
+        static final int ARG_TRUE = 6;
+        static final int ARG_FALSE = 7;
+        static final int ARG_CHAR = 8;
+        // Strings defined per session; past this, new strings are written inline so messages built at
+        // runtime cannot grow the dictionary without bound
+        private static final int MAX_DICTIONARY_SIZE = 65_536;
+        private static final int MAX_INTERNED_LENGTH = 1024; // Longer strings are most likely built at runtime
+
+        private final ChannelFileAppender out; // Buffered channel the records are written through
+        // Shared template ids, null to define templates per session. Only templates with arguments or key/values
+        // are interned there; other messages may well be built at runtime and would fill the persisted
+        // dictionary for good, so they use the session dictionary like everything else.
+        private final TemplateRegistry templates;
+        private final Map<String, Integer> ids = new HashMap<>(); // Strings already defined in this session
+        private final LogEvent textEvent = new LogEvent(); // Scratch event for lines arriving as text
+        private ByteBuffer record = ByteBuffer.allocate(4096); // One event and the definitions it needs
+        private int[] contextIds = new int[8]; // Dictionary ids of the current event's MDC keys
+        private int[] keyValueIds = new int[8]; // Dictionary ids of the current event's key/value keys
+        private long previousNanos; // Timestamp the next delta is relative to
+
+        // Constructor using the default flush policy
+        public BinaryLogAppender(String filePath) {
+            this(filePath, FlushPolicy.defaults());
+        }
+
+        // Constructor that takes a file path and the flush policy of the underlying channel appender
+        public BinaryLogAppender(String filePath, FlushPolicy policy) {
+            this(filePath, policy, null);
+        }
+
+        // Constructor that references templates by their ids in a persisted registry instead of defining
+        // them in the file, so many files (and restarts) share one dictionary
+        public BinaryLogAppender(String filePath, FlushPolicy policy, TemplateRegistry templates) {
+            Path path = Paths.get(filePath);
+            if (templates != null && templates.getDictionary() == null) {
+                throw new IllegalArgumentException("Template registry must be persisted to decode the file later");
+            }
+            this.templates = templates;
+            boolean newFile = true;
+            try {
+                newFile = !Files.exists(path) || Files.size(path) == 0;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.out = new ChannelFileAppender(filePath, 256 * 1024, policy);
+            this.previousNanos = LogClock.currentTimeNanos();
+            if (newFile) {
+                record.put(MAGIC).put((byte) VERSION);
+            }
+            record.put((byte) SESSION).put((byte) VERSION).putLong(previousNanos);
+            if (templates != null) {
+                Path dictionary = templates.getDictionary().toAbsolutePath();
+                Path directory = path.toAbsolutePath().getParent();
+                putByte(TEMPLATES);
+                putString((directory != null ? directory.relativize(dictionary) : dictionary).toString());
+            }
+            record.flip();
+            out.append(LogLevel.INFO, record);
+        }
+
+        // Implementation of the event method: encode the event with any new definitions and write it as one record.
+        // A durable record waits for its fsync after the monitor is released so other producers can join it.
+        @Override
+        public int append(LogEvent event) {
+            int size;
+            long durableTarget;
+            synchronized (this) {
+                size = encode(event);
+                durableTarget = out.write(event.level, record);
+            }
+            if (durableTarget >= 0) {
+                out.awaitDurable(durableTarget);
+            }
+            return size;
+        }
+
+        // Method to encode an event and the definitions it needs into the record, returning its size
+        private int encode(LogEvent event) {
+            record.clear();
+            // Definitions go first so every id is known to the decoder before the event uses it
+            int registered = templates != null && (event.argCount > 0 || event.keyValues.size() > 0)
+                    ? templates.idOf(event.template) : TemplateRegistry.NOT_INTERNED;
+            int template = registered == TemplateRegistry.NOT_INTERNED ? define(event.template) : 0;
+            int logger = define(event.loggerName);
+            int thread = define(event.threadName);
+            ContextMap context = event.context;
+            if (contextIds.length < context.size()) {
+                contextIds = new int[context.size()];
+            }
+            for (int i = 0; i < context.size(); i++) {
+                contextIds[i] = define(context.key(i));
+            }
+            KeyValues keyValues = event.keyValues;
+            if (keyValueIds.length < keyValues.size()) {
+                keyValueIds = new int[keyValues.size()];
+            }
+            for (int i = 0; i < keyValues.size(); i++) {
+                keyValueIds[i] = define(keyValues.key(i));
+            }
+            putByte(event.level.ordinal());
+            putVarLong(zigzag(event.timestampNanos - previousNanos));
+            previousNanos = event.timestampNanos;
+            if (registered != TemplateRegistry.NOT_INTERNED) {
+                putVarLong((long) registered << 1 | 1);
+            } else if (templates != null) {
+                putVarLong((long) template << 1);
+                if (template == 0) {
+                    putString(event.template == null ? "" : event.template);
+                }
+            } else {
+                putReference(template, event.template);
+            }
+            putReference(logger, event.loggerName);
+            putReference(thread, event.threadName);
+            putVarLong(event.argCount);
+            for (int i = 0; i < event.argCount; i++) {
+                putArgument(event.args != null ? event.args[i] : i == 0 ? event.arg0 : i == 1 ? event.arg1 : event.arg2);
+            }
+            putVarLong(context.size());
+            for (int i = 0; i < context.size(); i++) {
+                putReference(contextIds[i], context.key(i));
+                putString(context.value(i));
+            }
+            putVarLong(keyValues.size());
+            for (int i = 0; i < keyValues.size(); i++) {
+                putReference(keyValueIds[i], keyValues.key(i));
+                putKeyValue(keyValues, i);
+            }
+            record.flip();
+            return record.remaining();
+        }
+
+        // Implementation of the append method for lines without an event: stored as a plain message
+        @Override
+        public void append(String logMessage) {
+            append(LogLevel.INFO, logMessage);
+        }
+
+        // Level-aware variant for lines without an event
+        @Override
+        public void append(LogLevel level, CharSequence logMessage) {
+            long durableTarget;
+            synchronized (this) {
+                textEvent.level = level;
+                textEvent.template = logMessage.toString();
+                textEvent.timestampNanos = LogClock.currentTimeNanos();
+                encode(textEvent);
+                textEvent.clear();
+                durableTarget = out.write(level, record);
+            }
+            if (durableTarget >= 0) {
+                out.awaitDurable(durableTarget);
+            }
+        }
+
+        // Method to write any pending records and close the file
+        @Override
+        public void close() {
+            out.close();
+        }
+
+        // Method to get the id of a string, defining it first if needed; 0 when it is to be written inline
+        private int define(String value) {
+            if (value == null || value.length() > MAX_INTERNED_LENGTH) {
+                return 0;
+            }
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (ids.size() >= MAX_DICTIONARY_SIZE) {
+                return 0;
+            }
+            int newId = ids.size() + 1;
+            ids.put(value, newId);
+            putByte(DEFINE);
+            putVarLong(newId);
+            putString(value);
+            return newId;
+        }
+
+        // Method to write a dictionary reference, followed by the string itself when it has no id
+        private void putReference(int id, String value) {
+            putVarLong(id);
+            if (id == 0) {
+                putString(value == null ? "" : value);
+            }
+        }
+
+        // Method to write a key/value's value in the argument encoding, without boxing primitives
+        private void putKeyValue(KeyValues keyValues, int index) {
+            switch (keyValues.type(index)) {
+                case KeyValues.LONG:
+                    putByte(ARG_LONG);
+                    putVarLong(zigzag(keyValues.longValue(index)));
+                    break;
+                case KeyValues.DOUBLE:
+                    putByte(ARG_DOUBLE);
+                    ensure(8);
+                    record.putLong(keyValues.longValue(index)); // Raw bits of the double
+                    break;
+                case KeyValues.BOOLEAN:
+                    putByte(keyValues.booleanValue(index) ? ARG_TRUE : ARG_FALSE);
+                    break;
+                default:
+                    putArgument(keyValues.objectValue(index));
+            }
+        }
+
+        // Method to write one argument with its type, keeping numbers in binary form
+        private void putArgument(Object arg) {
+            if (arg == null) {
+                putByte(ARG_NULL);
+            } else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+                putByte(ARG_INT);
+                putVarLong(zigzag(((Number) arg).longValue()));
+            } else if (arg instanceof Long) {
+                putByte(ARG_LONG);
+                putVarLong(zigzag((Long) arg));
+            } else if (arg instanceof Double) {
+                putByte(ARG_DOUBLE);
+                ensure(8);
+                record.putLong(Double.doubleToRawLongBits((Double) arg));
+            } else if (arg instanceof Float) {
+                putByte(ARG_FLOAT);
+                ensure(4);
+                record.putInt(Float.floatToRawIntBits((Float) arg));
+            } else if (arg instanceof Boolean) {
+                putByte((Boolean) arg ? ARG_TRUE : ARG_FALSE);
+            } else if (arg instanceof Character) {
+                putByte(ARG_CHAR);
+                putVarLong((Character) arg);
+            } else {
+                putByte(ARG_STRING);
+                putString(arg instanceof CharSequence ? (CharSequence) arg : String.valueOf(arg));
+            }
+        }
+
+        private void putByte(int value) {
+            ensure(1);
+            record.put((byte) value);
+        }
+
+        // Method to write an unsigned LEB128 varint: 7 bits per byte, high bit set on all but the last
+        private void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                record.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            record.put((byte) value);
+        }
+
+        private void putString(CharSequence value) {
+            int length = Utf8Encoder.encodedLength(value);
+            putVarLong(length);
+            ensure(length);
+            int end = Utf8Encoder.encode(value, 0, value.length(), record.array(), record.position());
+            record.position(end);
+        }
+
+        // Method to map signed values to unsigned ones so small negative numbers stay short
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        // Method to grow the record buffer so the given number of bytes fits
+        private void ensure(int bytes) {
+            if (record.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+                record.flip();
+                larger.put(record);
+                record = larger;
+            }
+        }
+    }
+
+    // Command line tool rendering a BinaryLogAppender file as text through one of the log formatters:
+    //   java org.example.Main$BinaryLogDecoder <file> [simple | timestamped | json | <pattern>]
+    // A record cut short by a crash ends the output instead of failing it.
+    static final class BinaryLogDecoder {
+        private BinaryLogDecoder() {
+        }
+
+        public static void main(String[] args) throws IOException {
+            if (args.length < 1) {
+                System.err.println("Usage: BinaryLogDecoder <file> [simple | timestamped | json | <pattern>]");
+                System.exit(2);
+            }
+            LogFormatter formatter = formatterFor(args.length > 1 ? args[1] : "timestamped");
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            Path file = Paths.get(args[0]).toAbsolutePath();
+            try (InputStream in = Files.newInputStream(file)) {
+                decode(in, file.getParent(), formatter, out);
+            }
+            out.flush();
+        }
+
+        // Method to get the formatter named on the command line; anything else is taken as a pattern
+        static LogFormatter formatterFor(String name) {
+            switch (name) {
+                case "simple":
+                    return new SimpleLogFormatter();
+                case "timestamped":
+                    return new TimestampedLogFormatter();
+                case "json":
+                    return new JsonLogFormatter();
+                default:
+                    return new PatternLogFormatter(name);
+            }
+        }
+
+        // Method to decode a stream whose template dictionaries, if any, are in the working directory
+        static long decode(InputStream input, LogFormatter formatter, Appendable out) throws IOException {
+            return decode(input, Paths.get(""), formatter, out);
+        }
+
+        // Method to decode every record of the stream, writing one formatted line per event; template
+        // dictionaries are resolved against the given directory. Returns the number of events decoded.
+        static long decode(InputStream input, Path directory, LogFormatter formatter, Appendable out)
+                throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+            byte[] magic = new byte[BinaryLogAppender.MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, BinaryLogAppender.MAGIC)) {
+                throw new IOException("Not a binary log file");
+            }
+            int fileVersion = in.readUnsignedByte(); // Layout of legacy sessions
+            if (fileVersion < 1 || fileVersion > BinaryLogAppender.VERSION) {
+                throw new IOException("Unsupported binary log version " + fileVersion);
+            }
+            int version = fileVersion; // Layout of the current session's events
+            LogLevel[] levels = LogLevel.values();
+            List<String> dictionary = new ArrayList<>();
+            dictionary.add(null); // Id 0 means inline
+            Map<String, TemplateRegistry> registries = new HashMap<>(); // Template dictionaries already loaded
+            TemplateRegistry templates = null; // Registry of the current session, null if templates are defined inline
+            LogEvent event = new LogEvent();
+            StringBuilder message = new StringBuilder(256);
+            StringBuilder line = new StringBuilder(512);
+            long previousNanos = 0L;
+            long events = 0;
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) {
+                    return events;
+                }
+                try {
+                    if (tag == BinaryLogAppender.SESSION || tag == BinaryLogAppender.LEGACY_SESSION) {
+                        version = tag == BinaryLogAppender.SESSION ? in.readUnsignedByte() : fileVersion;
+                        if (version < 1 || version > BinaryLogAppender.VERSION) {
+                            throw new IOException("Unsupported binary log version " + version);
+                        }
+                        previousNanos = in.readLong();
+                        dictionary.subList(1, dictionary.size()).clear();
+                        templates = null;
+                    } else if (tag == BinaryLogAppender.TEMPLATES) {
+                        String name = readString(in);
+                        templates = registries.get(name);
+                        if (templates == null) {
+                            templates = TemplateRegistry.read(directory.resolve(name));
+                            registries.put(name, templates);
+                        }
+                    } else if (tag == BinaryLogAppender.DEFINE) {
+                        long id = readVarLong(in);
+                        if (id != dictionary.size()) {
+                            throw new IOException("Out of order dictionary id " + id);
+                        }
+                        dictionary.add(readString(in));
+                    } else if (tag < levels.length) {
+                        event.level = levels[tag];
+                        previousNanos += unzigzag(readVarLong(in));
+                        event.timestampNanos = previousNanos;
+                        if (templates == null) {
+                            event.template = readReference(in, dictionary);
+                        } else if (version >= 4) {
+                            event.template = readTaggedTemplate(in, templates, dictionary);
+                        } else {
+                            event.template = readTemplate(in, templates);
+                        }
+                        event.loggerName = readReference(in, dictionary);
+                        event.threadName = readReference(in, dictionary);
+                        event.argCount = (int) readVarLong(in);
+                        event.args = new Object[event.argCount];
+                        for (int i = 0; i < event.argCount; i++) {
+                            event.args[i] = readArgument(in);
+                        }
+                        event.context = ContextMap.EMPTY;
+                        if (version >= 2) {
+                            for (long i = readVarLong(in); i > 0; i--) {
+                                String key = readReference(in, dictionary);
+                                event.context = event.context.with(key, readString(in));
+                            }
+                        }
+                        event.keyValues.clear();
+                        if (version >= 3) {
+                            for (long i = readVarLong(in); i > 0; i--) {
+                                String key = readReference(in, dictionary);
+                                Object value = readArgument(in);
+                                if (value instanceof Long) {
+                                    event.keyValues.addLong(key, (Long) value);
+                                } else if (value instanceof Double) {
+                                    event.keyValues.addDouble(key, (Double) value);
+                                } else if (value instanceof Boolean) {
+                                    event.keyValues.addBoolean(key, (Boolean) value);
+                                } else {
+                                    event.keyValues.addObject(key, value);
+                                }
+                            }
+                        }
+                        message.setLength(0);
+                        line.setLength(0);
+                        event.renderMessage(message, formatter);
+                        formatter.formatTo(line, event, message);
+                        out.append(line).append('\n');
+                        events++;
+                    } else {
+                        throw new IOException("Unknown record tag " + tag);
+                    }
+                } catch (EOFException e) {
+                    return events; // Last record was only partly written
+                }
+            }
+        }
+
+        private static String readReference(DataInputStream in, List<String> dictionary) throws IOException {
+            long id = readVarLong(in);
+            if (id == 0) {
+                return readString(in);
+            }
+            if (id >= dictionary.size()) {
+                throw new IOException("Undefined dictionary id " + id);
+            }
+            return dictionary.get((int) id);
+        }
+
+        private static String readTemplate(DataInputStream in, TemplateRegistry templates) throws IOException {
+            int id = (int) readVarLong(in);
+            if (id == TemplateRegistry.NOT_INTERNED) {
+                return readString(in);
+            }
+            String template = templates.template(id);
+            if (template == null) {
+                throw new IOException("Template id " + id + " missing from " + templates.getDictionary());
+            }
+            return template;
+        }
+
+        // Method to read a version 4 template reference of a session with a registry
+        private static String readTaggedTemplate(DataInputStream in, TemplateRegistry templates,
+                                                 List<String> dictionary) throws IOException {
+            long tagged = readVarLong(in);
+            if ((tagged & 1) == 0) {
+                long id = tagged >>> 1;
+                if (id == 0) {
+                    return readString(in);
+                }
+                if (id >= dictionary.size()) {
+                    throw new IOException("Undefined dictionary id " + id);
+                }
+                return dictionary.get((int) id);
+            }
+            int id = (int) (tagged >>> 1);
+            String template = templates.template(id);
+            if (template == null) {
+                throw new IOException("Template id " + id + " missing from " + templates.getDictionary());
+            }
+            return template;
+        }
+
+        private static Object readArgument(DataInputStream in) throws IOException {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case BinaryLogAppender.ARG_NULL:
+                    return null;
+                case BinaryLogAppender.ARG_STRING:
+                    return readString(in);
+                case BinaryLogAppender.ARG_INT:
+                    return (int) unzigzag(readVarLong(in));
+                case BinaryLogAppender.ARG_LONG:
+                    return unzigzag(readVarLong(in));
+                case BinaryLogAppender.ARG_DOUBLE:
+                    return Double.longBitsToDouble(in.readLong());
+                case BinaryLogAppender.ARG_FLOAT:
+                    return Float.intBitsToFloat(in.readInt());
+                case BinaryLogAppender.ARG_TRUE:
+                    return Boolean.TRUE;
+                case BinaryLogAppender.ARG_FALSE:
+                    return Boolean.FALSE;
+                case BinaryLogAppender.ARG_CHAR:
+                    return (char) readVarLong(in);
+                default:
+                    throw new IOException("Unknown argument type " + type);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static long readVarLong(DataInputStream in) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+    // Hand-rolled UTF-8 encoder writing characters straight into a byte buffer, with an ASCII fast path
+    static final class Utf8Encoder {
+        private Utf8Encoder() {
+        }
+
+        // Method to get the number of bytes that is always enough to encode the given number of chars
+        static int maxBytes(int chars) {
+            return chars * 3;
+        }
+
+        // Method to get the exact number of bytes encode writes for the characters
+        static int encodedLength(CharSequence in) {
+            int length = in.length();
+            int bytes = length;
+            for (int i = 0; i < length; i++) {
+                char c = in.charAt(i);
+                if (c < 0x80) {
+                    continue;
+                }
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                } else if (codePointAt(in, i, length) >= 0) {
+                    bytes += 2; // Four bytes for the two chars of the pair
+                    i++;
+                } // An unpaired surrogate becomes a single '?'
+            }
+            return bytes;
+        }
+
+        // Method to encode the characters at the buffer position; the caller guarantees maxBytes(length)
+        // bytes remain. Unpaired surrogates are written as '?' like the JDK encoder does.
+        static void encode(CharSequence in, ByteBuffer out) {
+            int length = in.length();
+            if (out.hasArray()) {
+                byte[] array = out.array();
+                int offset = out.arrayOffset() + out.position();
+                int end = encode(in, 0, length, array, offset);
+                out.position(end - out.arrayOffset());
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = in.charAt(i);
+                if (c < 0x80) {
+                    out.put((byte) c);
+                } else if (c < 0x800) {
+                    out.put((byte) (0xC0 | (c >> 6)));
+                    out.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    int codePoint = codePointAt(in, i, length);
+                    if (codePoint < 0) {
+                        out.put((byte) '?');
+                    } else {
+                        i++;
+                        out.put((byte) (0xF0 | (codePoint >> 18)));
+                        out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                        out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                        out.put((byte) (0x80 | (codePoint & 0x3F)));
+                    }
+                } else {
+                    out.put((byte) (0xE0 | (c >> 12)));
+                    out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    out.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        // Method to encode chars [start, end) into the array at offset; returns the offset after the last byte
+        static int encode(CharSequence in, int start, int end, byte[] out, int offset) {
+            int i = start;
+            // ASCII fast path: one compare and one store per character
+            while (i < end) {
+                char c = in.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                out[offset++] = (byte) c;
+                i++;
+            }
+            for (; i < end; i++) {
+                char c = in.charAt(i);
+                if (c < 0x80) {
+                    out[offset++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[offset++] = (byte) (0xC0 | (c >> 6));
+                    out[offset++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    int codePoint = codePointAt(in, i, end);
+                    if (codePoint < 0) {
+                        out[offset++] = (byte) '?';
+                    } else {
+                        i++;
+                        out[offset++] = (byte) (0xF0 | (codePoint >> 18));
+                        out[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        out[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        out[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+                    }
+                } else {
+                    out[offset++] = (byte) (0xE0 | (c >> 12));
+                    out[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    out[offset++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return offset;
+        }
+
+        // Method to decode a surrogate pair starting at index, or -1 if the surrogate is unpaired
+        private static int codePointAt(CharSequence in, int index, int end) {
+            char high = in.charAt(index);
+            if (Character.isHighSurrogate(high) && index + 1 < end) {
+                char low = in.charAt(index + 1);
+                if (Character.isLowSurrogate(low)) {
+                    return Character.toCodePoint(high, low);
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Renders "{}" style message templates without parsing a format string
+    static final class MessageTemplate {
+        private MessageTemplate() {
+        }
+
+        // Method to append the template to the builder, substituting each "{}" with the next argument
+        static void render(StringBuilder out, String template, int argCount,
+                           Object arg0, Object arg1, Object arg2, Object[] args) {
+            if (argCount == 0) {
+                out.append(template); // Plain message: "{}" is taken literally
+                return;
+            }
+            int start = 0;
+            int argIndex = 0;
+            int length = template.length();
+            while (argIndex < argCount) {
+                int placeholder = template.indexOf("{}", start);
+                if (placeholder < 0) {
+                    break; // More arguments than placeholders: extra arguments are ignored
+                }
+                out.append(template, start, placeholder);
+                Object arg;
+                if (args != null) {
+                    arg = args[argIndex];
+                } else if (argIndex == 0) {
+                    arg = arg0;
+                } else if (argIndex == 1) {
+                    arg = arg1;
+                } else {
+                    arg = arg2;
+                }
+                appendArgument(out, arg);
+                argIndex++;
+                start = placeholder + 2;
+            }
+            out.append(template, start, length);
+        }
+
+        // Method to append an argument, unboxing common types so no intermediate String is created
+        static void appendArgument(StringBuilder out, Object arg) {
+            if (arg instanceof CharSequence) {
+                out.append((CharSequence) arg);
+            } else if (arg instanceof Integer) {
+                out.append(((Integer) arg).intValue());
+            } else if (arg instanceof Long) {
+                out.append(((Long) arg).longValue());
+            } else if (arg instanceof Boolean) {
+                out.append(((Boolean) arg).booleanValue());
+            } else if (arg instanceof Character) {
+                out.append(((Character) arg).charValue());
+            } else {
+                out.append(arg);
+            }
+        }
+
+        // Method to render a template into a new String
+        static String render(String template, int argCount, Object arg0, Object arg1, Object arg2, Object[] args) {
+            if (argCount == 0) {
+                return template;
+            }
+            StringBuilder out = new StringBuilder(template.length() + 16 * argCount);
+            render(out, template, argCount, arg0, arg1, arg2, args);
+            return out.toString();
+        }
+    }
+
+    // Immutable set of context entries, shared by reference between the thread that set it and every event
+    // logged while it was current. Entries live in two small parallel arrays in insertion order: an MDC holds
+    // a handful of keys, for which a linear scan is cheaper than hashing.
+    static final class ContextMap {
+        static final ContextMap EMPTY = new ContextMap(new String[0], new String[0]);
+
+        private final String[] keys;
+        private final String[] values;
+
+        private ContextMap(String[] keys, String[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        // Method to get the value of a key, or null if it is not set
+        String get(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        String key(int index) {
+            return keys[index];
+        }
+
+        String value(int index) {
+            return values[index];
+        }
+
+        // Method to get a map with the key set to the value; this map is left unchanged
+        ContextMap with(String key, String value) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    if (values[i].equals(value)) {
+                        return this;
+                    }
+                    String[] newValues = values.clone();
+                    newValues[i] = value;
+                    return new ContextMap(keys, newValues); // Keys are never modified, so they can be shared
+                }
+            }
+            String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+            String[] newValues = Arrays.copyOf(values, values.length + 1);
+            newKeys[keys.length] = key;
+            newValues[values.length] = value;
+            return new ContextMap(newKeys, newValues);
+        }
+
+        // Method to get a map without the key; this map is left unchanged
+        ContextMap without(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    if (keys.length == 1) {
+                        return EMPTY;
+                    }
+                    String[] newKeys = new String[keys.length - 1];
+                    String[] newValues = new String[values.length - 1];
+                    System.arraycopy(keys, 0, newKeys, 0, i);
+                    System.arraycopy(values, 0, newValues, 0, i);
+                    System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+                    System.arraycopy(values, i + 1, newValues, i, values.length - i - 1);
+                    return new ContextMap(newKeys, newValues);
+                }
+            }
+            return this;
+        }
+
+        // Method to copy the entries into a mutable map
+        Map<String, String> toMap() {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                map.put(keys[i], values[i]);
+            }
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return toMap().toString();
+        }
+    }
+
+    // Mapped Diagnostic Context: per-thread key/value pairs (trace id, tenant, user) attached to every event the
+    // thread logs. Every change replaces the thread's ContextMap with a new one, so an event captures the current
+    // map by reference and still sees exactly that context when it is formatted later on the writer thread.
+    // With many short-lived threads prefer the scoped runWith/callWith/wrap, shaped like ScopedValue's
+    // where(...).run(...): they restore the previous context on exit and leave no per-thread entry behind,
+    // where put keeps one for as long as the thread lives.
+    static final class MDC {
+        // Bound context per thread; null (no entry) means empty. A plain ThreadLocal still creates an entry,
+        // and the thread's map, on get, so threads that never bind a context must not call get at all.
+        private static final ThreadLocal<ContextMap> context = new ThreadLocal<>();
+        // Number of threads with a bound context, per bucket of thread ids. A thread whose bucket is zero has
+        // none and skips the ThreadLocal; sharing a bucket with a thread that has one only costs a lookup.
+        private static final AtomicIntegerArray threadsWithContext = new AtomicIntegerArray(1024);
+
+        private MDC() {
+        }
+
+        // Method to run the task with the given context bound to the current thread, restoring the previous one
+        public static void runWith(ContextMap map, Runnable task) {
+            ContextMap previous = getContext();
+            setContext(map);
+            try {
+                task.run();
+            } finally {
+                setContext(previous);
+            }
+        }
+
+        // Method to compute a result with the given context bound to the current thread
+        public static <T> T callWith(ContextMap map, Supplier<T> task) {
+            ContextMap previous = getContext();
+            setContext(map);
+            try {
+                return task.get();
+            } finally {
+                setContext(previous);
+            }
+        }
+
+        // Method to capture the current context for a task handed to another thread or an executor
+        public static Runnable wrap(Runnable task) {
+            ContextMap captured = getContext();
+            return () -> runWith(captured, task);
+        }
+
+        // Method to set a key for the current thread; a null value removes it
+        public static void put(String key, String value) {
+            if (key == null) {
+                throw new IllegalArgumentException("MDC key must not be null");
+            }
+            if (value == null) {
+                remove(key);
+                return;
+            }
+            bind(getContext().with(key, value));
+        }
+
+        // Method to get the value of a key for the current thread, or null
+        public static String get(String key) {
+            return getContext().get(key);
+        }
+
+        // Method to remove a key for the current thread
+        public static void remove(String key) {
+            ContextMap current = getContext();
+            if (current.size() > 0) {
+                bind(current.without(key));
+            }
+        }
+
+        // Method to remove every key for the current thread
+        public static void clear() {
+            bind(ContextMap.EMPTY);
+        }
+
+        // Method to get the current thread's context, e.g. to hand it to a task running on another thread
+        public static ContextMap getContext() {
+            if (threadsWithContext.get(bucket()) == 0) {
+                return ContextMap.EMPTY;
+            }
+            ContextMap map = context.get();
+            return map != null ? map : ContextMap.EMPTY;
+        }
+
+        // Method to replace the current thread's context with one obtained from getContext
+        public static void setContext(ContextMap map) {
+            bind(map);
+        }
+
+        // Method to bind a context to the current thread, counting the thread in its bucket while it has one.
+        // Only the thread itself reads its own count, so the increment before set is always seen by its reads.
+        private static void bind(ContextMap map) {
+            boolean had = getContext().size() > 0;
+            if (map != null && map.size() > 0) {
+                if (!had) {
+                    threadsWithContext.incrementAndGet(bucket());
+                }
+                context.set(map);
+            } else if (had) {
+                context.remove(); // Dropping the entry keeps idle threads free of MDC state
+                threadsWithContext.decrementAndGet(bucket());
+            }
+        }
+
+        // Method to get the current thread's bucket in threadsWithContext
+        private static int bucket() {
+            return (int) Thread.currentThread().getId() & (threadsWithContext.length() - 1);
+        }
+    }
+
+    // Key/value pairs of a structured event, stored without boxing: numbers and booleans in a long array,
+    // other values by reference. Instances are reused by log builders and event slots, so the arrays only
+    // grow while warming up. Like template arguments, object values are rendered after the call returns.
+    static final class KeyValues {
+        static final byte LONG = 0;
+        static final byte DOUBLE = 1;
+        static final byte BOOLEAN = 2;
+        static final byte OBJECT = 3;
+
+        private int size;
+        private String[] keys = new String[0];
+        private byte[] types = new byte[0];
+        private long[] primitives = new long[0]; // Long values, double bits, booleans as 0 or 1
+        private Object[] objects = new Object[0];
+        private StringBuilder scratch; // Reused to render doubles, which have no allocation-free byte path
+
+        int size() {
+            return size;
+        }
+
+        String key(int index) {
+            return keys[index];
+        }
+
+        byte type(int index) {
+            return types[index];
+        }
+
+        long longValue(int index) {
+            return primitives[index];
+        }
+
+        double doubleValue(int index) {
+            return Double.longBitsToDouble(primitives[index]);
+        }
+
+        boolean booleanValue(int index) {
+            return primitives[index] != 0;
+        }
+
+        Object objectValue(int index) {
+            return objects[index];
+        }
+
+        void addLong(String key, long value) {
+            add(key, LONG, value, null);
+        }
+
+        void addDouble(String key, double value) {
+            add(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+        }
+
+        void addBoolean(String key, boolean value) {
+            add(key, BOOLEAN, value ? 1L : 0L, null);
+        }
+
+        void addObject(String key, Object value) {
+            add(key, OBJECT, 0L, value);
+        }
+
+        private void add(String key, byte type, long primitive, Object object) {
+            if (size == keys.length) {
+                int capacity = Math.max(8, size * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                types = Arrays.copyOf(types, capacity);
+                primitives = Arrays.copyOf(primitives, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+            }
+            keys[size] = key;
+            types[size] = type;
+            primitives[size] = primitive;
+            objects[size] = object;
+            size++;
+        }
+
+        // Method to replace the pairs with a copy of the other set's pairs
+        void copyFrom(KeyValues other) {
+            clear();
+            for (int i = 0; i < other.size; i++) {
+                add(other.keys[i], other.types[i], other.primitives[i], other.objects[i]);
+            }
+        }
+
+        // Method to drop every pair and the references they held
+        void clear() {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(objects, 0, size, null);
+            size = 0;
+        }
+
+        // Method to get the value at index as text: CharSequence values as they are, anything else rendered
+        // into a reused buffer that is valid until the next call
+        CharSequence valueText(int index) {
+            if (types[index] == OBJECT && objects[index] instanceof CharSequence) {
+                return (CharSequence) objects[index];
+            }
+            if (scratch == null) {
+                scratch = new StringBuilder(32);
+            }
+            scratch.setLength(0);
+            appendValue(scratch, index);
+            return scratch;
+        }
+
+        // Method to append the value at index as plain text
+        void appendValue(StringBuilder out, int index) {
+            switch (types[index]) {
+                case LONG:
+                    out.append(primitives[index]);
+                    break;
+                case DOUBLE:
+                    out.append(doubleValue(index));
+                    break;
+                case BOOLEAN:
+                    out.append(booleanValue(index));
+                    break;
+                default:
+                    MessageTemplate.appendArgument(out, objects[index]);
+            }
+        }
+
+        // Method to append the pairs logfmt style, " key=value" each; values with spaces, quotes or '='
+        // are quoted so the line can still be split into pairs
+        void appendTo(StringBuilder out) {
+            for (int i = 0; i < size; i++) {
+                out.append(' ').append(keys[i]).append('=');
+                int start = out.length();
+                appendValue(out, i);
+                if (types[i] == OBJECT && needsQuotes(out, start)) {
+                    for (int j = out.length() - 1; j >= start; j--) {
+                        char c = out.charAt(j);
+                        if (c == '"' || c == '\\') {
+                            out.insert(j, '\\');
+                        }
+                    }
+                    out.insert(start, '"').append('"');
+                }
+            }
+        }
+
+        private static boolean needsQuotes(StringBuilder out, int start) {
+            if (start == out.length()) {
+                return true; // Empty value
+            }
+            for (int i = start; i < out.length(); i++) {
+                char c = out.charAt(i);
+                if (c <= ' ' || c == '"' || c == '=' || c == '\\') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Reusable event slot stored in the ring buffer; fields are overwritten on every publish.
+    // Only references are captured on the logging thread, so arguments must not be mutated
+    // after the call if the logger runs asynchronously.
+    static final class LogEvent {
+        // Slot state: equal to the claiming sequence while free, sequence + 1 once published
+        volatile long sequence;
+        String loggerName; // Name of the logger the message was logged through
+        String threadName; // Name of the thread that logged the message
+        ContextMap context = ContextMap.EMPTY; // MDC of the logging thread, captured by reference
+        final KeyValues keyValues = new KeyValues(); // Structured fields, copied in because builders are reused
+        LogLevel level; // Level of the captured message
+        String template; // Message text, or "{}" template when argCount > 0
+        int argCount; // Number of captured arguments
+        Object arg0; // Arguments of the arity-specialized overloads, captured without an array
+        Object arg1;
+        Object arg2;
+        Object[] args; // Arguments of the varargs overload; arg0..arg2 are unused when set
+        long timestampNanos; // Wall clock time at which the message was logged, in nanoseconds since the epoch
+        private StringBuilder line; // Per-slot copy of a formatted line, used by AsyncAppender queues
+
+        // Method to get the slot's reusable line buffer, emptied
+        StringBuilder line() {
+            if (line == null || line.capacity() > FormatBuffers.MAX_RETAINED_CAPACITY) {
+                line = new StringBuilder(256);
+            }
+            line.setLength(0);
+            return line;
+        }
+
+        // Method to get the line copied into the slot by line()
+        CharSequence copiedLine() {
+            return line;
+        }
+
+        // Method to render the template and arguments into the final message text
+        String message() {
+            return MessageTemplate.render(template, argCount, arg0, arg1, arg2, args);
+        }
+
+        // Method to render the template and arguments into a reusable buffer
+        void renderMessage(StringBuilder out) {
+            MessageTemplate.render(out, template, argCount, arg0, arg1, arg2, args);
+        }
+
+        // Method to render the message for the formatter: key/value pairs are appended to the text
+        // unless the formatter places them itself
+        void renderMessage(StringBuilder out, LogFormatter formatter) {
+            renderMessage(out);
+            if (keyValues.size() > 0 && !formatter.rendersKeyValues()) {
+                keyValues.appendTo(out);
+            }
+        }
+
+        // Method to drop references held by the slot so they can be garbage collected
+        void clear() {
+            loggerName = null;
+            threadName = null;
+            context = ContextMap.EMPTY;
+            keyValues.clear();
+            template = null;
+            arg0 = null;
+            arg1 = null;
+            arg2 = null;
+            args = null;
+        }
+    }
+
+    // Callback invoked by the ring buffer for every event drained on the consumer side
+    interface LogEventHandler {
+        void onEvent(LogEvent event);
+    }
+
+    // Preallocated lock-free ring buffer with many producers and a single consumer.
+    // Producers claim a sequence with one atomic increment and publish through the slot's own
+    // sequence field, so no producer ever waits on another producer, only on a full buffer.
+    // Producers bracket claim and publish with enter and exit; after close, enter refuses new producers
+    // and the consumer keeps draining until those already inside have published, so no producer can be
+    // left waiting on a full buffer that nobody drains anymore.
+    static final class RingBuffer {
+        private final LogEvent[] slots; // Preallocated slots, reused for every lap around the buffer
+        private final int mask; // Capacity - 1, used instead of modulo to map sequences to slots
+        private final AtomicLong claimSequence = new AtomicLong(); // Next sequence handed to a producer
+        // Next sequence the consumer will read; written by the consumer once per batch, volatile for size()
+        private volatile long consumeSequence;
+        private final AtomicInteger activeProducers = new AtomicInteger(); // Producers between enter and exit
+        private volatile boolean closed; // Set by close; the consumer stops once it is set and all is drained
+
+        // Constructor that rounds the capacity up to the next power of two and fills every slot
+        RingBuffer(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Ring buffer capacity must be positive: " + capacity);
+            }
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity) {
+                size <<= 1;
+            }
+            slots = new LogEvent[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new LogEvent();
+                slots[i].sequence = i; // Slot i is free for the producer that claims sequence i
+            }
+            mask = size - 1;
+        }
+
+        // Method to claim the next free slot for the calling producer; safe to call from any number of threads.
+        // The caller fills the returned slot and must hand it back through publish.
+        LogEvent claim() {
+            long sequence = claimSequence.getAndIncrement();
+            LogEvent event = slots[(int) sequence & mask];
+            // Wait for the consumer to release the slot if the producers have lapped it
+            for (int attempt = 0; event.sequence != sequence; attempt++) {
+                backOff(attempt);
+            }
+            return event;
+        }
+
+        // Method to claim the next slot only if it is free; returns null instead of waiting when the buffer is full
+        LogEvent tryClaim() {
+            long sequence = claimSequence.get();
+            while (true) {
+                LogEvent event = slots[(int) sequence & mask];
+                long slotSequence = event.sequence;
+                if (slotSequence == sequence) {
+                    if (claimSequence.compareAndSet(sequence, sequence + 1)) {
+                        return event;
+                    }
+                } else if (slotSequence < sequence) {
+                    return null; // Slot still holds an event from the previous lap: full
+                }
+                sequence = claimSequence.get(); // Lost a race with another producer, retry with the new head
+            }
+        }
+
+        // Method to make a filled slot visible to the consumer
+        void publish(LogEvent event) {
+            event.sequence = event.sequence + 1; // Volatile write publishes the slot contents
+        }
+
+        // Method to register a producer before it claims; returns false once the buffer is closed, in which
+        // case the producer must not claim. Every successful enter must be followed by exit.
+        boolean enter() {
+            activeProducers.incrementAndGet();
+            if (closed) {
+                activeProducers.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        // Method to deregister a producer after it published its slot or gave up claiming one
+        void exit() {
+            activeProducers.decrementAndGet();
+        }
+
+        // Method to refuse new producers; the consumer returns once the producers inside have published
+        // and every event is drained
+        void close() {
+            closed = true;
+        }
+
+        // Method to wait progressively longer: spin first, then give up the CPU, then park briefly
+        static void backOff(int attempt) {
+            if (attempt < 100) {
+                Thread.onSpinWait();
+            } else if (attempt < 200) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(10_000L);
+            }
+        }
+
+        // Method to hand every contiguous published event to the handler; returns false when idle
+        boolean drain(LogEventHandler handler) {
+            long sequence = consumeSequence;
+            LogEvent event = slots[(int) sequence & mask];
+            if (event.sequence != sequence + 1) {
+                return false;
+            }
+            do {
+                try {
+                    handler.onEvent(event);
+                } finally {
+                    event.clear();
+                    event.sequence = sequence + slots.length; // Release the slot for the next lap
+                }
+                sequence++;
+                event = slots[(int) sequence & mask];
+            } while (event.sequence == sequence + 1);
+            consumeSequence = sequence;
+            return true;
+        }
+
+        // Consumer loop: drain until the buffer is closed, no producer is inside and it is empty,
+        // backing off while idle
+        void runConsumer(LogEventHandler handler) {
+            int idleSpins = 0;
+            // closed is read first: a producer entering after that read sees it and stays out
+            while (!closed || activeProducers.get() > 0 || !isEmpty()) {
+                if (drain(handler)) {
+                    idleSpins = 0;
+                } else if (idleSpins < 100) {
+                    idleSpins++;
+                    Thread.onSpinWait();
+                } else if (idleSpins < 200) {
+                    idleSpins++;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(100_000L);
+                }
+            }
+        }
+
+        // Method to check whether every claimed sequence has been consumed (consumer side only)
+        boolean isEmpty() {
+            return claimSequence.get() == consumeSequence;
+        }
+
+        // Method to get the number of claimed but not yet consumed slots (approximate while producers run)
+        int size() {
+            return (int) Math.max(0L, Math.min(slots.length, claimSequence.get() - consumeSequence));
+        }
+
+        // Method to get the rounded-up number of slots
+        int capacity() {
+            return slots.length;
+        }
+    }
+
+    // Reusable buffers for rendering one event: the message text and the formatted line. The event is only
+    // rendered and formatted once the first appender asks for a line, so event appenders alone cost no formatting.
+    static final class FormatBuffers {
+        // Buffers that grew past this size are replaced so one huge message is not retained forever
+        private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+        final StringBuilder message = new StringBuilder(256);
+        final StringBuilder line = new StringBuilder(512);
+        final LogEvent event = new LogEvent(); // Scratch event for synchronous logging
+        private ByteBuffer bytes = ByteBuffer.allocate(Utf8Encoder.maxBytes(512) + 1); // Encoded line for byte appenders
+        private boolean encoded; // Whether bytes already holds the current line
+        private boolean lineStale; // Whether the line was encoded directly and line has not been decoded yet
+        private LogEvent pending; // Event being handed to the appenders
+        private LogFormatter formatter; // Formatter still to apply to the pending event, null once formatted
+        private LogFormatter encodedBy; // Byte formatter that wrote bytes, used again for a text line
+
+        // Method to empty the buffers before rendering the next event
+        FormatBuffers reset() {
+            pending = null;
+            formatter = null;
+            encodedBy = null;
+            message.setLength(0);
+            line.setLength(0);
+            encoded = false;
+            lineStale = false;
+            if (message.capacity() > MAX_RETAINED_CAPACITY) {
+                message.setLength(256);
+                message.trimToSize();
+                message.setLength(0);
+            }
+            if (line.capacity() > MAX_RETAINED_CAPACITY) {
+                line.setLength(512);
+                line.trimToSize();
+                line.setLength(0);
+            }
+            if (bytes.capacity() > MAX_RETAINED_CAPACITY * 3) {
+                bytes = ByteBuffer.allocate(Utf8Encoder.maxBytes(512) + 1);
+            }
+            return this;
+        }
+
+        // Method to set the event handed to the appenders and the formatter used when one needs a line
+        FormatBuffers prepare(LogFormatter formatter, LogEvent event) {
+            this.pending = event;
+            this.formatter = formatter;
+            return this;
+        }
+
+        // Method to render and format the pending event once; byte formatters write the encoded line directly
+        private void format() {
+            if (formatter == null) {
+                return;
+            }
+            LogEvent event = pending;
+            event.renderMessage(message, formatter);
+            if (formatter instanceof ByteLogFormatter) {
+                ByteLogFormatter byteFormatter = (ByteLogFormatter) formatter;
+                ensureBytes(byteFormatter.maxBytes(event, message) + 1);
+                byteFormatter.encodeTo(bytes, event, message);
+                bytes.put((byte) '\n');
+                bytes.flip();
+                encoded = true;
+                lineStale = true;
+                encodedBy = formatter;
+            } else {
+                formatter.formatTo(line, event, message);
+            }
+            formatter = null;
+        }
+
+        // Method to get the current line as chars; when it was encoded directly, the formatter's char path
+        // renders the same text for text appenders instead of decoding the bytes into a new String
+        CharSequence textLine() {
+            format();
+            if (lineStale) {
+                encodedBy.formatTo(line, pending, message);
+                lineStale = false;
+            }
+            return line;
+        }
+
+        // Method to get an empty byte buffer of at least the given capacity
+        private void ensureBytes(int required) {
+            if (bytes.capacity() < required) {
+                bytes = ByteBuffer.allocate(required);
+            }
+            bytes.clear();
+        }
+
+        // Method to get the current line as UTF-8 bytes with a trailing newline, encoding it only once per event
+        ByteBuffer encodedLine() {
+            format();
+            if (!encoded) {
+                ensureBytes(Utf8Encoder.maxBytes(line.length()) + 1);
+                Utf8Encoder.encode(line, bytes);
+                bytes.put((byte) '\n');
+                bytes.flip();
+                encoded = true;
+            }
+            bytes.position(0); // Rewind for each appender, the previous one consumed the bytes
+            return bytes;
+        }
+
+        // Method to hand the current event to an appender in the representation it consumes;
+        // returns the number of bytes (or chars, for text appenders) handed over
+        int appendTo(Appender appender, LogLevel level) {
+            if (appender instanceof EventAppender && pending != null) {
+                return ((EventAppender) appender).append(pending);
+            }
+            if (appender instanceof ByteAppender) {
+                ByteBuffer encoded = encodedLine();
+                int size = encoded.remaining();
+                ((ByteAppender) appender).append(level, encoded);
+                return size;
+            }
+            CharSequence text = textLine();
+            appender.append(level, text);
+            return text.length();
+        }
+    }
+
+    // Bounded pool of reusable per-call objects (format buffers, log builders). They are only needed while a
+    // thread is inside a log call, so unlike a ThreadLocal cache the memory held does not grow with the number
+    // of threads (thread per request, virtual threads), and a nested log call from an appender gets its own.
+    // Threads start probing at a slot derived from their id, so uncontended callers keep reusing the same slot.
+    static final class BoundedPool<T> {
+        private static final int PROBES = 4; // Slots tried before giving up and allocating
+
+        private final AtomicReferenceArray<T> slots; // Idle objects, null where taken or never filled
+        private final int mask;
+        private final Supplier<T> factory; // Creates an object when every probed slot is empty
+
+        // Constructor for a pool of at least the given number of slots, rounded up to a power of two
+        BoundedPool(int size, Supplier<T> factory) {
+            int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.factory = factory;
+        }
+
+        // Method to take an idle object, or a new one when every probed slot is empty
+        T acquire() {
+            int start = (int) Thread.currentThread().getId();
+            for (int i = 0; i < PROBES; i++) {
+                int index = (start + i) & mask;
+                T pooled = slots.get(index);
+                if (pooled != null && slots.compareAndSet(index, pooled, null)) {
+                    return pooled;
+                }
+            }
+            return factory.get();
+        }
+
+        // Method to return an object for reuse; dropped when the probed slots are all occupied
+        void release(T object) {
+            int start = (int) Thread.currentThread().getId();
+            for (int i = 0; i < PROBES; i++) {
+                int index = (start + i) & mask;
+                if (slots.get(index) == null && slots.compareAndSet(index, null, object)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Striped counters, one per log level, cheap to increment from many threads at once
+    static final class LevelCounters {
+        private final LongAdder[] counters = new LongAdder[LogLevel.values().length];
+
+        LevelCounters() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new LongAdder();
+            }
+        }
+
+        // Method to count one event of the given level
+        void increment(LogLevel level) {
+            counters[level.ordinal()].increment();
+        }
+
+        // Method to get the count for one level
+        long get(LogLevel level) {
+            return counters[level.ordinal()].sum();
+        }
+
+        // Method to get the count over all levels
+        long total() {
+            long total = 0;
+            for (LongAdder counter : counters) {
+                total += counter.sum();
+            }
+            return total;
+        }
+    }
+
+    // Log-linear latency histogram in the style of HdrHistogram: 8 sub-buckets per power of two, so any
+    // recorded value is reported within 12.5%. Buckets are striped counters, so concurrent writers do not contend.
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS;
+
+        private final LongAdder[] buckets = new LongAdder[(MAGNITUDES + 1) * SUB_BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        // Method to record one latency in nanoseconds
+        void record(long nanos) {
+            long value = Math.max(0L, nanos);
+            buckets[bucketIndex(value)].increment();
+            count.increment();
+            sum.add(value);
+        }
+
+        // Method to map a value to its bucket: values below SUB_BUCKETS map exactly, larger values by
+        // their highest bit (magnitude) and the next SUB_BUCKET_BITS bits
+        private static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+            int subBucket = (int) (value >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+            return magnitude * SUB_BUCKETS + subBucket;
+        }
+
+        // Method to get the largest value that maps to the given bucket
+        private static long bucketUpperBound(int index) {
+            int magnitude = index / SUB_BUCKETS;
+            long subBucket = index % SUB_BUCKETS;
+            if (magnitude == 0) {
+                return subBucket;
+            }
+            return ((SUB_BUCKETS + subBucket + 1) << (magnitude - 1)) - 1;
+        }
+
+        // Method to get the number of recorded values
+        long getCount() {
+            return count.sum();
+        }
+
+        // Method to get the mean of the recorded values in nanoseconds
+        double getMean() {
+            long recorded = count.sum();
+            return recorded == 0 ? 0.0 : (double) sum.sum() / recorded;
+        }
+
+        // Method to get the value at the given percentile (0-100), reported as its bucket's upper bound
+        long getValueAtPercentile(double percentile) {
+            long recorded = count.sum();
+            if (recorded == 0) {
+                return 0L;
+            }
+            long target = Math.max(1L, (long) Math.ceil(recorded * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return bucketUpperBound(buckets.length - 1);
+        }
+    }
+
+    // Appenders that write in batches report how many batches they have written
+    interface FlushCounter {
+        long getFlushCount();
+    }
+
+    // Registered appender together with its counters; the logger iterates these instead of bare appenders
+    static final class MeteredAppender {
+        final Appender appender; // The appender itself
+        final LongAdder events = new LongAdder(); // Lines handed to the appender
+        final LongAdder bytes = new LongAdder(); // Bytes handed to byte appenders, chars for text appenders
+        final LatencyHistogram latency = new LatencyHistogram(); // Time spent inside append
+
+        MeteredAppender(Appender appender) {
+            this.appender = appender;
+        }
+
+        // Method to hand the current line to the appender, timing the call
+        void append(FormatBuffers buffers, LogLevel level) {
+            long start = System.nanoTime();
+            int size = buffers.appendTo(appender, level);
+            latency.record(System.nanoTime() - start);
+            events.increment();
+            bytes.add(size);
+        }
+
+        // Method to get a one-line summary for monitoring tools
+        String summary() {
+            String flushes = appender instanceof FlushCounter
+                    ? String.valueOf(((FlushCounter) appender).getFlushCount()) : "n/a";
+            return String.format("%s events=%d bytes=%d flushes=%s latencyNs[mean=%.0f p50=%d p99=%d p99.9=%d max=%d]",
+                    appender.getClass().getSimpleName(), events.sum(), bytes.sum(), flushes, latency.getMean(),
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                    latency.getValueAtPercentile(99.9), latency.getValueAtPercentile(100));
+        }
+    }
+
+    // JMX view of a logger hierarchy's metrics
+    public interface LoggerMetricsMBean {
+        long getEventsLogged();
+
+        long getEventsFiltered();
+
+        long getEventsDropped();
+
+        boolean isCountingFiltered();
+
+        void setCountingFiltered(boolean countingFiltered);
+
+        int getQueueDepth();
+
+        int getQueueCapacity();
+
+        String[] getAppenderSummaries();
+
+        long getEventsLogged(String level);
+
+        long getEventsFiltered(String level);
+
+        long getEventsDropped(String level);
+    }
+
+    // Instrumentation of a logger hierarchy: per-level event counts, appender counters and queue occupancy.
+    // Everything is a striped counter updated without locks, so measuring does not add contention.
+    public static final class LoggerMetrics implements LoggerMetricsMBean {
+        final LevelCounters logged = new LevelCounters(); // Events accepted by the level check
+        final LevelCounters filtered = new LevelCounters(); // Events rejected by the level check
+        final LevelCounters dropped = new LevelCounters(); // Events dropped by a backpressure policy
+        // Counting filtered events puts an increment on the disabled path, so it is opt-in; loggers fold
+        // it into their per-level states, so change it through setCountingFiltered
+        volatile boolean countFiltered;
+        private final Logger root; // Hierarchy being measured
+
+        LoggerMetrics(Logger root) {
+            this.root = root;
+        }
+
+        @Override
+        public long getEventsLogged() {
+            return logged.total();
+        }
+
+        @Override
+        public long getEventsFiltered() {
+            return filtered.total();
+        }
+
+        @Override
+        public long getEventsDropped() {
+            return dropped.total();
+        }
+
+        @Override
+        public boolean isCountingFiltered() {
+            return countFiltered;
+        }
+
+        @Override
+        public void setCountingFiltered(boolean countingFiltered) {
+            root.setCountingFiltered(countingFiltered);
+        }
+
+        // Number of events waiting in the async ring buffer, 0 in synchronous mode
+        @Override
+        public int getQueueDepth() {
+            RingBuffer buffer = root.ringBuffer;
+            return buffer == null ? 0 : buffer.size();
+        }
+
+        // Capacity of the async ring buffer, 0 in synchronous mode
+        @Override
+        public int getQueueCapacity() {
+            RingBuffer buffer = root.ringBuffer;
+            return buffer == null ? 0 : buffer.capacity();
+        }
+
+        @Override
+        public String[] getAppenderSummaries() {
+            List<String> summaries = new ArrayList<>();
+            for (MeteredAppender appender : root.appenders) {
+                summaries.add(appender.summary());
+            }
+            return summaries.toArray(new String[0]);
+        }
+
+        @Override
+        public long getEventsLogged(String level) {
+            return logged.get(LogLevel.valueOf(level));
+        }
+
+        @Override
+        public long getEventsFiltered(String level) {
+            return filtered.get(LogLevel.valueOf(level));
+        }
+
+        @Override
+        public long getEventsDropped(String level) {
+            return dropped.get(LogLevel.valueOf(level));
+        }
+
+        // Method to get the counters of every registered appender
+        public List<MeteredAppender> getAppenders() {
+            return Collections.unmodifiableList(root.appenders);
+        }
+    }
+
+    // What a producer does when an async queue is full: wait in some way, or give up and drop the event
+    interface BackpressurePolicy {
+        // Method to claim a slot for an event of the given level, or return null to drop the event
+        LogEvent claim(RingBuffer buffer, LogLevel level);
+
+        // Busy-wait briefly, then yield, then park in short intervals: lowest latency once space frees up
+        BackpressurePolicy SPIN_THEN_PARK = (buffer, level) -> buffer.claim();
+
+        // Park without spinning until a slot is free: leaves the CPU to the consumer on busy machines
+        BackpressurePolicy BLOCK = (buffer, level) -> {
+            LogEvent event;
+            while ((event = buffer.tryClaim()) == null) {
+                LockSupport.parkNanos(50_000L);
+            }
+            return event;
+        };
+
+        // Never wait: events that do not fit are dropped and counted
+        BackpressurePolicy DROP = (buffer, level) -> buffer.tryClaim();
+
+        // Method to get a policy dropping events below the given level and waiting for the rest,
+        // e.g. dropBelow(LogLevel.WARN) sheds DEBUG/INFO under load but never loses an ERROR
+        static BackpressurePolicy dropBelow(LogLevel minimumKeptLevel) {
+            return (buffer, level) -> level.ordinal() >= minimumKeptLevel.ordinal()
+                    ? buffer.claim() : buffer.tryClaim();
+        }
+    }
+
+    // Fluent builder for one structured event, e.g. logger.atInfo().kv("orderId", id).kv("latencyUs", n).log("filled").
+    // Enabled builders come from a bounded pool and return to it in log, so a builder must not be kept or used
+    // after log; disabled levels return NOOP, on which every call does nothing.
+    interface LogBuilder {
+        LogBuilder kv(String key, long value);
+
+        LogBuilder kv(String key, double value);
+
+        LogBuilder kv(String key, boolean value);
+
+        // Object values are captured by reference like template arguments and rendered later
+        LogBuilder kv(String key, Object value);
+
+        void log(String message);
+
+        void log(String template, Object arg);
+
+        void log(String template, Object arg0, Object arg1);
+
+        void log(String template, Object... args);
+
+        // Builder returned for disabled levels
+        LogBuilder NOOP = new LogBuilder() {
+            @Override
+            public LogBuilder kv(String key, long value) {
+                return this;
+            }
+
+            @Override
+            public LogBuilder kv(String key, double value) {
+                return this;
+            }
+
+            @Override
+            public LogBuilder kv(String key, boolean value) {
+                return this;
+            }
+
+            @Override
+            public LogBuilder kv(String key, Object value) {
+                return this;
+            }
+
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void log(String template, Object arg) {
+            }
+
+            @Override
+            public void log(String template, Object arg0, Object arg1) {
+            }
+
+            @Override
+            public void log(String template, Object... args) {
+            }
+        };
+    }
+
+    // Pooled builder collecting key/values for one enabled event
+    static final class PooledLogBuilder implements LogBuilder {
+        private final KeyValues keyValues = new KeyValues();
+        private Logger logger; // Logger the event goes to, null while pooled
+        private LogLevel level;
+
+        // Method to prepare the builder for an event
+        PooledLogBuilder start(Logger logger, LogLevel level) {
+            this.logger = logger;
+            this.level = level;
+            return this;
+        }
+
+        @Override
+        public LogBuilder kv(String key, long value) {
+            keyValues.addLong(key, value);
+            return this;
+        }
+
+        @Override
+        public LogBuilder kv(String key, double value) {
+            keyValues.addDouble(key, value);
+            return this;
+        }
+
+        @Override
+        public LogBuilder kv(String key, boolean value) {
+            keyValues.addBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public LogBuilder kv(String key, Object value) {
+            keyValues.addObject(key, value);
+            return this;
+        }
+
+        @Override
+        public void log(String message) {
+            finish(message, 0, null, null, null);
+        }
+
+        @Override
+        public void log(String template, Object arg) {
+            finish(template, 1, arg, null, null);
+        }
+
+        @Override
+        public void log(String template, Object arg0, Object arg1) {
+            finish(template, 2, arg0, arg1, null);
+        }
+
+        @Override
+        public void log(String template, Object... args) {
+            if (args == null) {
+                finish(template, 1, null, null, null); // log(template, null) binds the null to the array
+            } else {
+                finish(template, args.length, null, null, args);
+            }
+        }
+
+        // Method to write the event and give the builder back to the pool
+        private void finish(String template, int argCount, Object arg0, Object arg1, Object[] args) {
+            Logger target = logger;
+            if (target == null) {
+                throw new IllegalStateException("Log builder used after log was called");
+            }
+            try {
+                target.write(level, template, argCount, arg0, arg1, null, args, keyValues);
+            } finally {
+                logger = null;
+                level = null;
+                keyValues.clear();
+                Logger.builders.release(this);
+            }
+        }
+    }
+
+    // Appender wrapper with its own bounded queue and writer thread, so a slow sink (e.g. a blocked stdout
+    // pipe) only delays itself. Lines are copied into preallocated slots and written in arrival order.
+    static class AsyncAppender implements Appender {
+        private final Appender delegate; // Sink written to from the dedicated thread
+        private final RingBuffer queue; // Bounded queue of copied lines
+        private final BackpressurePolicy backpressure; // What to do when the queue is full
+        private final LevelCounters dropped = new LevelCounters(); // Lines discarded: queue full or appender closed
+        private final Thread writer; // Thread draining the queue into the delegate
+        private ByteBuffer bytes = ByteBuffer.allocate(Utf8Encoder.maxBytes(512) + 1); // Encoded line (writer only)
+
+        // Constructor that wraps the appender with a queue of the given capacity
+        public AsyncAppender(Appender delegate, int capacity, BackpressurePolicy backpressure) {
+            this.delegate = delegate;
+            this.queue = new RingBuffer(capacity);
+            this.backpressure = backpressure;
+            this.writer = new Thread(() -> queue.runConsumer(this::write),
+                    "logger-appender-" + delegate.getClass().getSimpleName());
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+
+        // Implementation of the append method for String messages
+        @Override
+        public void append(String logMessage) {
+            append(LogLevel.INFO, logMessage);
+        }
+
+        // Implementation of the append method for the logger's reusable buffer
+        @Override
+        public void append(CharSequence logMessage) {
+            append(LogLevel.INFO, logMessage);
+        }
+
+        // Implementation of the append method: copy the line into a queue slot and return. After close the
+        // line is dropped and counted, like a full queue with the DROP policy, since nothing drains the queue.
+        @Override
+        public void append(LogLevel level, CharSequence logMessage) {
+            if (!queue.enter()) {
+                dropped.increment(level);
+                return;
+            }
+            try {
+                LogEvent slot = backpressure.claim(queue, level);
+                if (slot == null) {
+                    dropped.increment(level);
+                    return;
+                }
+                slot.level = level;
+                slot.line().append(logMessage);
+                queue.publish(slot);
+            } finally {
+                queue.exit();
+            }
+        }
+
+        // Method to write one queued line to the delegate (writer thread only)
+        private void write(LogEvent slot) {
+            try {
+                if (delegate instanceof ByteAppender) {
+                    CharSequence line = slot.copiedLine();
+                    int required = Utf8Encoder.maxBytes(line.length()) + 1;
+                    if (bytes.capacity() < required) {
+                        bytes = ByteBuffer.allocate(required);
+                    }
+                    bytes.clear();
+                    Utf8Encoder.encode(line, bytes);
+                    bytes.put((byte) '\n');
+                    bytes.flip();
+                    ((ByteAppender) delegate).append(slot.level, bytes);
+                } else {
+                    delegate.append(slot.level, slot.copiedLine());
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // Keep the writer alive if the sink fails once
+            }
+        }
+
+        // Method to get the number of lines waiting in the queue
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        // Method to get the number of lines of the given level dropped because the queue was full or closed
+        public long getDroppedCount(LogLevel level) {
+            return dropped.get(level);
+        }
+
+        // Method to get the number of lines dropped because the queue was full or the appender closed
+        public long getDroppedCount() {
+            return dropped.total();
+        }
+
+        // Method to write every queued line, stop the writer thread and close the delegate
+        @Override
+        public void close() {
+            queue.close();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delegate.close();
+        }
     }
 
-    // Simple log formatter implementation
-    static class SimpleLogFormatter implements LogFormatter {
+    // Singleton Logger class
+    public static class Logger {
+        // Name of the root logger; named loggers form a dot-separated hierarchy below it
+        static final String ROOT_NAME = "root";
+
+        // Thread-safe singleton instance of Logger
+        private static volatile Logger instance;
+        // Lock for ensuring thread safety when modifying shared resources (shared by the whole hierarchy)
+        private final Lock lock;
+        private final String name; // Dot-separated logger name, "root" for the root logger
+        private final Logger root; // Root of the hierarchy, owning the appenders and the async writer
+        private final Logger parent; // Parent logger, null for the root
+        private final List<Logger> children = new CopyOnWriteArrayList<>(); // Direct descendants
+        // Named loggers of the hierarchy, only populated on the root
+        private final Map<String, Logger> namedLoggers;
+        private LogLevel configuredLevel; // Level set explicitly on this logger, null to inherit (guarded by lock)
+        // Effective level, cached on every logger so the level check never walks up the hierarchy
+        private volatile LogLevel currentLogLevel;
+        // Per-level states precomputed by setLogLevel and setCountingFiltered, so a disabled call costs one
+        // field read and a predictable branch instead of loading the level and comparing ordinals; whether
+        // filtered events are counted is folded in, so counting adds nothing to the disabled path when off
+        private static final int DISABLED = 0; // Rejected without further work
+        private static final int COUNTED = 1; // Rejected and counted as filtered
+        private static final int ENABLED = 2; // Logged
+        private volatile int debugState;
+        private volatile int infoState;
+        private volatile int warnState;
+        private volatile int errorState;
+        private final List<MeteredAppender> appenders; // List of appenders for outputting log messages
+        private final LogFormatter formatter; // Formatter for log messages
+        private volatile RingBuffer ringBuffer; // Non-null once asynchronous mode has been enabled
+        private volatile BackpressurePolicy backpressure; // Applied when the ring buffer is full
+        private final LoggerMetrics metrics; // Counters of the whole hierarchy, owned by the root
+        private Thread asyncWriter; // Consumer thread draining the ring buffer to the appenders
+        private final FormatBuffers writerBuffers = new FormatBuffers(); // Reused by the async writer thread
+        // Shared by threads that log synchronously; sized by cores, not by threads
+        private static final BoundedPool<FormatBuffers> callerBuffers =
+                new BoundedPool<>(Runtime.getRuntime().availableProcessors() * 4, FormatBuffers::new);
+        // Builders of the structured API, reused the same way
+        static final BoundedPool<PooledLogBuilder> builders =
+                new BoundedPool<>(Runtime.getRuntime().availableProcessors() * 4, PooledLogBuilder::new);
+
+        // Private constructor to initialize logger with log level and formatter
+        private Logger(LogLevel logLevel, LogFormatter formatter) {
+            this.lock = new ReentrantLock();
+            this.name = ROOT_NAME;
+            this.root = this;
+            this.parent = null;
+            this.namedLoggers = new ConcurrentHashMap<>();
+            this.metrics = new LoggerMetrics(this);
+            this.configuredLevel = logLevel;
+            applyLogLevel(logLevel);
+            this.formatter = formatter;
+            // Copy-on-write so the async writer can iterate without taking the lock
+            this.appenders = new CopyOnWriteArrayList<>();
+        }
+
+        // Private constructor for a named logger sharing the root's appenders, formatter and writer
+        private Logger(String name, Logger parent) {
+            this.lock = parent.lock;
+            this.name = name;
+            this.root = parent.root;
+            this.parent = parent;
+            this.namedLoggers = null;
+            this.metrics = root.metrics;
+            this.configuredLevel = null; // Inherit until a level is set explicitly
+            applyLogLevel(parent.currentLogLevel);
+            this.formatter = root.formatter;
+            this.appenders = root.appenders;
+        }
+
+        // Method to get the single instance of Logger
+        public static Logger getInstance(LogLevel logLevel, LogFormatter formatter) {
+            if (instance == null) {
+                synchronized (Logger.class) { // Double-checked locking to ensure thread safety
+                    if (instance == null) {
+                        instance = new Logger(logLevel, formatter); // Create a new instance if it doesn't exist
+                    }
+                }
+            }
+            return instance; // Return the singleton instance
+        }
+
+        // Method to get the named logger from the singleton's hierarchy, creating the root with defaults if needed
+        public static Logger getLogger(String name) {
+            return getInstance(LogLevel.INFO, new TimestampedLogFormatter()).getChild(name);
+        }
+
+        // Method to get or create the logger with the given dot-separated name (e.g. "com.shop.payments").
+        // Missing ancestors are created as well so every logger hangs under its nearest name prefix.
+        public Logger getChild(String loggerName) {
+            if (loggerName == null || loggerName.isEmpty() || loggerName.equals(ROOT_NAME)) {
+                return root;
+            }
+            Logger existing = root.namedLoggers.get(loggerName);
+            if (existing != null) {
+                return existing; // Fast path: no locking once the logger exists
+            }
+            lock.lock();
+            try {
+                Logger current = root;
+                int start = 0;
+                while (start <= loggerName.length()) {
+                    int dot = loggerName.indexOf('.', start);
+                    int end = dot < 0 ? loggerName.length() : dot;
+                    String prefix = loggerName.substring(0, end);
+                    Logger next = root.namedLoggers.get(prefix);
+                    if (next == null) {
+                        next = new Logger(prefix, current);
+                        current.children.add(next);
+                        root.namedLoggers.put(prefix, next);
+                    }
+                    current = next;
+                    start = end + 1;
+                }
+                return current;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Method to get the number of events of the given level dropped because the ring buffer was full
+        public long getDroppedCount(LogLevel level) {
+            return metrics.dropped.get(level);
+        }
+
+        // Method to get the metrics of this logger's hierarchy
+        public LoggerMetrics getMetrics() {
+            return metrics;
+        }
+
+        // Method to publish the hierarchy's metrics on the platform MBean server
+        public void registerMBean() {
+            try {
+                ObjectName objectName = new ObjectName("org.example:type=Logger,name=" + ObjectName.quote(root.name));
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(metrics, objectName);
+                }
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register logger metrics MBean", e);
+            }
+        }
+
+        // Method to get the dot-separated name of this logger
+        public String getName() {
+            return name;
+        }
+
+        // Method to add a new appender to the logger
+        public void addAppender(Appender appender) {
+            // Locking only around the critical section to reduce contention
+            lock.lock();
+            try {
+                appenders.add(new MeteredAppender(appender)); // Add the appender to the list
+            } finally {
+                lock.unlock(); // Ensure the lock is released
+            }
+        }
+
+        // Method to switch the logger to asynchronous mode backed by a ring buffer of the given size;
+        // producers wait with SPIN_THEN_PARK when it is full
+        public void enableAsync(int bufferSize) {
+            enableAsync(bufferSize, BackpressurePolicy.SPIN_THEN_PARK);
+        }
+
+        // Method to switch to asynchronous mode with an explicit policy for a full ring buffer
+        public void enableAsync(int bufferSize, BackpressurePolicy policy) {
+            if (root != this) {
+                root.enableAsync(bufferSize, policy); // The whole hierarchy shares the root's writer
+                return;
+            }
+            lock.lock();
+            try {
+                if (ringBuffer != null) {
+                    return; // Already running asynchronously
+                }
+                RingBuffer buffer = new RingBuffer(bufferSize);
+                backpressure = policy;
+                asyncWriter = new Thread(() -> runWriter(buffer), "logger-async-writer");
+                asyncWriter.setDaemon(true);
+                asyncWriter.start();
+                ringBuffer = buffer; // Publish last so producers only see a buffer with a live consumer
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Consumer loop: drain the ring buffer until closed, backing off progressively while idle
+        private void runWriter(RingBuffer buffer) {
+            buffer.runConsumer(this::dispatch);
+        }
+
+        // Method to format a drained event and hand it to every appender (writer thread only)
+        private void dispatch(LogEvent event) {
+            // Templates are only rendered here, off the logging threads, into buffers reused for every event
+            FormatBuffers buffers = writerBuffers.reset().prepare(formatter, event);
+            for (MeteredAppender appender : appenders) {
+                try {
+                    appender.append(buffers, event.level);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // Keep the writer alive if a single appender fails
+                }
+            }
+        }
+
+        // Method to log messages at a specific log level
+        public void log(LogLevel level, String message) {
+            int state = stateOf(level);
+            if (state == ENABLED) { // Check if the log level is enabled for logging
+                write(level, message, 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to log a "{}" template with one argument, formatted only if the level is enabled
+        public void log(LogLevel level, String template, Object arg) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                write(level, template, 1, arg, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to log a "{}" template with two arguments
+        public void log(LogLevel level, String template, Object arg0, Object arg1) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                write(level, template, 2, arg0, arg1, null, null);
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to log a "{}" template with three arguments
+        public void log(LogLevel level, String template, Object arg0, Object arg1, Object arg2) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                write(level, template, 3, arg0, arg1, arg2, null);
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to log a "{}" template with any number of arguments
+        public void log(LogLevel level, String template, Object... args) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                if (args == null) {
+                    write(level, template, 1, null, null, null, null); // log(level, template, null) binds here
+                } else {
+                    write(level, template, args.length, null, null, null, args);
+                }
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to log a message that is only built if the level is enabled
+        public void logWith(LogLevel level, Supplier<String> messageSupplier) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                write(level, messageSupplier.get(), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to log a message built from an argument only if the level is enabled; a non-capturing
+        // lambda or method reference is a constant, so the call site allocates nothing
+        public <T> void logWith(LogLevel level, T argument, Function<? super T, String> messageFunction) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                write(level, messageFunction.apply(argument), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(level);
+            }
+        }
+
+        // Method to count a message rejected by the level check; only reached while counting is switched on
+        private void filtered(LogLevel level) {
+            metrics.filtered.increment(level);
+        }
+
+        // Method to hand an enabled message without key/values to the ring buffer, or format and append it inline
+        private void write(LogLevel level, String template, int argCount,
+                           Object arg0, Object arg1, Object arg2, Object[] args) {
+            write(level, template, argCount, arg0, arg1, arg2, args, null);
+        }
+
+        // Method to hand an enabled message to the ring buffer, or format and append it inline
+        private void write(LogLevel level, String template, int argCount,
+                           Object arg0, Object arg1, Object arg2, Object[] args, KeyValues keyValues) {
+            metrics.logged.increment(level);
+            RingBuffer buffer = root.ringBuffer;
+            // A buffer being stopped refuses to enter, and the event takes the synchronous path instead
+            if (buffer != null && buffer.enter()) {
+                try {
+                    // Async mode: only copy references into a slot, the writer thread does the formatting
+                    LogEvent event = root.backpressure.claim(buffer, level);
+                    if (event == null) {
+                        metrics.dropped.increment(level); // Counted so loss can be alerted on rather than going unnoticed
+                        return;
+                    }
+                    capture(event, level, template, argCount, arg0, arg1, arg2, args, keyValues);
+                    buffer.publish(event);
+                    return;
+                } finally {
+                    buffer.exit();
+                }
+            }
+            // Render and format into pooled buffers, held only for the duration of the call
+            FormatBuffers buffers = callerBuffers.acquire().reset();
+            LogEvent event = buffers.event;
+            capture(event, level, template, argCount, arg0, arg1, arg2, args, keyValues);
+            try {
+                buffers.prepare(formatter, event);
+                // Append the log message to all registered appenders; the copy-on-write list
+                // needs no lock and each appender serializes its own output
+                LogDurabilityException notDurable = null;
+                for (MeteredAppender appender : appenders) {
+                    try {
+                        appender.append(buffers, level); // Call append method on each appender
+                    } catch (LogDurabilityException e) {
+                        notDurable = e; // Raised once the other appenders had the event
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // A failing sink (e.g. disk full) must not fail the caller or the others
+                    }
+                }
+                if (notDurable != null) {
+                    throw notDurable;
+                }
+            } finally {
+                event.clear(); // Do not keep arguments reachable from the pooled scratch event
+                callerBuffers.release(buffers.reset());
+            }
+        }
+
+        // Method to copy the call's references into an event
+        private void capture(LogEvent event, LogLevel level, String template, int argCount,
+                             Object arg0, Object arg1, Object arg2, Object[] args, KeyValues keyValues) {
+            event.loggerName = name;
+            event.threadName = Thread.currentThread().getName();
+            event.context = MDC.getContext();
+            event.level = level;
+            event.template = template;
+            event.argCount = argCount;
+            event.arg0 = arg0;
+            event.arg1 = arg1;
+            event.arg2 = arg2;
+            event.args = args;
+            event.timestampNanos = LogClock.currentTimeNanos();
+            if (keyValues != null) {
+                event.keyValues.copyFrom(keyValues); // The builder is reused once this call returns
+            }
+        }
+
+        // Convenience method for logging info messages
+        public void info(String message) {
+            int state = infoState;
+            if (state == ENABLED) {
+                write(LogLevel.INFO, message, 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging info templates with one argument
+        public void info(String template, Object arg) {
+            int state = infoState;
+            if (state == ENABLED) {
+                write(LogLevel.INFO, template, 1, arg, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging info templates with two arguments
+        public void info(String template, Object arg0, Object arg1) {
+            int state = infoState;
+            if (state == ENABLED) {
+                write(LogLevel.INFO, template, 2, arg0, arg1, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging info templates with three arguments
+        public void info(String template, Object arg0, Object arg1, Object arg2) {
+            int state = infoState;
+            if (state == ENABLED) {
+                write(LogLevel.INFO, template, 3, arg0, arg1, arg2, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging info templates with any number of arguments
+        public void info(String template, Object... args) {
+            int state = infoState;
+            if (state == ENABLED) {
+                if (args == null) {
+                    write(LogLevel.INFO, template, 1, null, null, null, null); // info(template, null) binds here
+                } else {
+                    write(LogLevel.INFO, template, args.length, null, null, null, args);
+                }
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging lazily built info messages
+        public void infoWith(Supplier<String> messageSupplier) {
+            int state = infoState;
+            if (state == ENABLED) {
+                write(LogLevel.INFO, messageSupplier.get(), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging info messages built from an argument without a capturing lambda
+        public <T> void infoWith(T argument, Function<? super T, String> messageFunction) {
+            int state = infoState;
+            if (state == ENABLED) {
+                write(LogLevel.INFO, messageFunction.apply(argument), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+        }
+
+        // Convenience method for logging debug messages
+        public void debug(String message) {
+            int state = debugState;
+            if (state == ENABLED) {
+                write(LogLevel.DEBUG, message, 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
+        }
+
+        // Convenience method for logging debug templates with one argument
+        public void debug(String template, Object arg) {
+            int state = debugState;
+            if (state == ENABLED) {
+                write(LogLevel.DEBUG, template, 1, arg, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
+        }
 
-        // Implementation of the format method for simple log messages
-        @Override
-        public String format(LogLevel level, String message) {
-            // Format the log message to include the log level in brackets
-            return String.format("[%s] %s", level, message);
+        // Convenience method for logging debug templates with two arguments
+        public void debug(String template, Object arg0, Object arg1) {
+            int state = debugState;
+            if (state == ENABLED) {
+                write(LogLevel.DEBUG, template, 2, arg0, arg1, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
         }
-    }
 
-    // Timestamped log formatter implementation
-    static class TimestampedLogFormatter implements LogFormatter {
+        // Convenience method for logging debug templates with three arguments
+        public void debug(String template, Object arg0, Object arg1, Object arg2) {
+            int state = debugState;
+            if (state == ENABLED) {
+                write(LogLevel.DEBUG, template, 3, arg0, arg1, arg2, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
+        }
 
-        // ThreadLocal instance to ensure thread safety and performance
-        // Each thread will have its own SimpleDateFormat instance
-        private static final ThreadLocal<SimpleDateFormat> dateFormat =
-                ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
+        // Convenience method for logging debug templates with any number of arguments
+        public void debug(String template, Object... args) {
+            int state = debugState;
+            if (state == ENABLED) {
+                if (args == null) {
+                    write(LogLevel.DEBUG, template, 1, null, null, null, null); // debug(template, null) binds here
+                } else {
+                    write(LogLevel.DEBUG, template, args.length, null, null, null, args);
+                }
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
+        }
 
-        // Implementation of the format method for timestamped log messages
-        @Override
-        public String format(LogLevel level, String message) {
-            // Get the current timestamp from the ThreadLocal instance
-            String timestamp = dateFormat.get().format(new Date());
-            // Format the log message to include the timestamp, log level, and message
-            return String.format("%s [%s] %s", timestamp, level, message);
+        // Convenience method for logging lazily built debug messages
+        public void debugWith(Supplier<String> messageSupplier) {
+            int state = debugState;
+            if (state == ENABLED) {
+                write(LogLevel.DEBUG, messageSupplier.get(), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
         }
-    }
 
-    // Interface for log appenders
-    interface Appender {
-        // Method to append log messages
-        void append(String logMessage);
-    }
+        // Convenience method for logging debug messages built from an argument without a capturing lambda
+        public <T> void debugWith(T argument, Function<? super T, String> messageFunction) {
+            int state = debugState;
+            if (state == ENABLED) {
+                write(LogLevel.DEBUG, messageFunction.apply(argument), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
+        }
 
-    // Factory for creating appenders
-    static class AppenderFactory {
-        // Static method to create an Appender based on the specified type
-        public static Appender createAppender(String type, String filePath) {
-            // Switch statement to determine which type of appender to create
-            switch (type.toLowerCase()) {
-                // Create a new ConsoleAppender if the type is "console"
-                case "console":
-                    return new ConsoleAppender();
-                case "file":
-                    return new FileAppender(filePath);
-                default:
-                    throw new IllegalArgumentException("Unknown appender type: " + type);
+        // Convenience method for logging warn messages
+        public void warn(String message) {
+            int state = warnState;
+            if (state == ENABLED) {
+                write(LogLevel.WARN, message, 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
             }
         }
-    }
 
-    // Console appender implementation
-    static class ConsoleAppender implements Appender {
-        @Override
-        public void append(String logMessage) {
-            System.out.println(logMessage);
+        // Convenience method for logging warn templates with one argument
+        public void warn(String template, Object arg) {
+            int state = warnState;
+            if (state == ENABLED) {
+                write(LogLevel.WARN, template, 1, arg, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
+            }
         }
-    }
 
-    // File appender implementation
-    static class FileAppender implements Appender {
-        // PrintWriter to handle writing log messages to a file
-        private PrintWriter writer;
+        // Convenience method for logging warn templates with two arguments
+        public void warn(String template, Object arg0, Object arg1) {
+            int state = warnState;
+            if (state == ENABLED) {
+                write(LogLevel.WARN, template, 2, arg0, arg1, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
+            }
+        }
 
-        // Constructor that takes a file path and initializes the PrintWriter
-        public FileAppender(String filePath) {
-            try {
-                // Create a PrintWriter with FileWriter to append to the specified file
-                writer = new PrintWriter(new FileWriter(filePath, true));
-            } catch (IOException e) {
-                e.printStackTrace();
+        // Convenience method for logging warn templates with three arguments
+        public void warn(String template, Object arg0, Object arg1, Object arg2) {
+            int state = warnState;
+            if (state == ENABLED) {
+                write(LogLevel.WARN, template, 3, arg0, arg1, arg2, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
             }
         }
 
-        // Implementation of the append method to write log messages to the file
-        @Override
-        public void append(String logMessage) {
-            if (writer != null) {
-                writer.println(logMessage); // Write the log message to the file
-                writer.flush(); // Flush the writer to ensure all data is written to the file
+        // Convenience method for logging warn templates with any number of arguments
+        public void warn(String template, Object... args) {
+            int state = warnState;
+            if (state == ENABLED) {
+                if (args == null) {
+                    write(LogLevel.WARN, template, 1, null, null, null, null); // warn(template, null) binds here
+                } else {
+                    write(LogLevel.WARN, template, args.length, null, null, null, args);
+                }
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
             }
         }
 
-        // Method to close the PrintWriter and release any system resources
-        public void close() {
-            if (writer != null) {
-                writer.close(); // Close the writer to free up resources
+        // Convenience method for logging lazily built warn messages
+        public void warnWith(Supplier<String> messageSupplier) {
+            int state = warnState;
+            if (state == ENABLED) {
+                write(LogLevel.WARN, messageSupplier.get(), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
             }
         }
-    }
 
-    // Singleton Logger class
-    public static class Logger {
-        // Thread-safe singleton instance of Logger
-        private static volatile Logger instance;
-        // Lock for ensuring thread safety when modifying shared resources
-        private final Lock lock = new ReentrantLock();
-        private LogLevel currentLogLevel; // Current log level for filtering log messages
-        private final List<Appender> appenders; // List of appenders for outputting log messages
-        private final LogFormatter formatter; // Formatter for log messages
+        // Convenience method for logging warn messages built from an argument without a capturing lambda
+        public <T> void warnWith(T argument, Function<? super T, String> messageFunction) {
+            int state = warnState;
+            if (state == ENABLED) {
+                write(LogLevel.WARN, messageFunction.apply(argument), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.WARN);
+            }
+        }
 
-        // Private constructor to initialize logger with log level and formatter
-        private Logger(LogLevel logLevel, LogFormatter formatter) {
-            this.currentLogLevel = logLevel;
-            this.formatter = formatter;
-            this.appenders = new ArrayList<>();
+        // Convenience method for logging error messages
+        public void error(String message) {
+            int state = errorState;
+            if (state == ENABLED) {
+                write(LogLevel.ERROR, message, 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
+            }
         }
 
-        // Method to get the single instance of Logger
-        public static Logger getInstance(LogLevel logLevel, LogFormatter formatter) {
-            if (instance == null) {
-                synchronized (Logger.class) { // Double-checked locking to ensure thread safety
-                    if (instance == null) {
-                        instance = new Logger(logLevel, formatter); // Create a new instance if it doesn't exist
-                    }
-                }
+        // Convenience method for logging error templates with one argument
+        public void error(String template, Object arg) {
+            int state = errorState;
+            if (state == ENABLED) {
+                write(LogLevel.ERROR, template, 1, arg, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
             }
-            return instance; // Return the singleton instance
         }
 
-        // Method to add a new appender to the logger
-        public void addAppender(Appender appender) {
-            // Locking only around the critical section to reduce contention
-            lock.lock();
-            try {
-                appenders.add(appender); // Add the appender to the list
-            } finally {
-                lock.unlock(); // Ensure the lock is released
+        // Convenience method for logging error templates with two arguments
+        public void error(String template, Object arg0, Object arg1) {
+            int state = errorState;
+            if (state == ENABLED) {
+                write(LogLevel.ERROR, template, 2, arg0, arg1, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
             }
         }
 
-        // Method to log messages at a specific log level
-        public void log(LogLevel level, String message) {
-            if (level.ordinal() >= currentLogLevel.ordinal()) { // Check if the log level is enabled for logging
-                String logMessage = formatter.format(level, message); // Format the log message
-                lock.lock(); // Acquire the lock for thread safety
-                try {
-                    // Append the log message to all registered appenders
-                    for (Appender appender : appenders) {
-                        appender.append(logMessage); // Call append method on each appender
-                    }
-                } finally {
-                    lock.unlock(); // Ensure the lock is released
+        // Convenience method for logging error templates with three arguments
+        public void error(String template, Object arg0, Object arg1, Object arg2) {
+            int state = errorState;
+            if (state == ENABLED) {
+                write(LogLevel.ERROR, template, 3, arg0, arg1, arg2, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
+            }
+        }
+
+        // Convenience method for logging error templates with any number of arguments
+        public void error(String template, Object... args) {
+            int state = errorState;
+            if (state == ENABLED) {
+                if (args == null) {
+                    write(LogLevel.ERROR, template, 1, null, null, null, null); // error(template, null) binds here
+                } else {
+                    write(LogLevel.ERROR, template, args.length, null, null, null, args);
                 }
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
             }
         }
 
-        // Convenience method for logging info messages
-        public void info(String message) {
-            log(LogLevel.INFO, message); // Delegate to the log method
+        // Convenience method for logging lazily built error messages
+        public void errorWith(Supplier<String> messageSupplier) {
+            int state = errorState;
+            if (state == ENABLED) {
+                write(LogLevel.ERROR, messageSupplier.get(), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
+            }
         }
 
-        // Convenience method for logging debug messages
-        public void debug(String message) {
-            log(LogLevel.DEBUG, message); // Delegate to the log method
+        // Convenience method for logging error messages built from an argument without a capturing lambda
+        public <T> void errorWith(T argument, Function<? super T, String> messageFunction) {
+            int state = errorState;
+            if (state == ENABLED) {
+                write(LogLevel.ERROR, messageFunction.apply(argument), 0, null, null, null, null);
+            } else if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
+            }
         }
 
-        // Convenience method for logging error messages
-        public void error(String message) {
-            log(LogLevel.ERROR, message); // Delegate to the log method
+        // Method to check whether messages of the given level are currently logged
+        public boolean isEnabled(LogLevel level) {
+            return stateOf(level) == ENABLED;
+        }
+
+        // Method to get the precomputed state of the given level
+        private int stateOf(LogLevel level) {
+            switch (level) {
+                case DEBUG:
+                    return debugState;
+                case INFO:
+                    return infoState;
+                case WARN:
+                    return warnState;
+                default:
+                    return errorState;
+            }
+        }
+
+        // Guard for call sites that build expensive messages themselves
+        public boolean isDebugEnabled() {
+            return debugState == ENABLED;
+        }
+
+        // Method to start a structured event at the given level; returns LogBuilder.NOOP when it is disabled
+        public LogBuilder atLevel(LogLevel level) {
+            int state = stateOf(level);
+            if (state == ENABLED) {
+                return builders.acquire().start(this, level);
+            }
+            if (state == COUNTED) {
+                filtered(level);
+            }
+            return LogBuilder.NOOP;
+        }
+
+        // Method to start a structured DEBUG event
+        public LogBuilder atDebug() {
+            int state = debugState;
+            if (state == ENABLED) {
+                return builders.acquire().start(this, LogLevel.DEBUG);
+            }
+            if (state == COUNTED) {
+                filtered(LogLevel.DEBUG);
+            }
+            return LogBuilder.NOOP;
+        }
+
+        // Method to start a structured INFO event
+        public LogBuilder atInfo() {
+            int state = infoState;
+            if (state == ENABLED) {
+                return builders.acquire().start(this, LogLevel.INFO);
+            }
+            if (state == COUNTED) {
+                filtered(LogLevel.INFO);
+            }
+            return LogBuilder.NOOP;
+        }
+
+        // Method to start a structured WARN event
+        public LogBuilder atWarn() {
+            int state = warnState;
+            if (state == ENABLED) {
+                return builders.acquire().start(this, LogLevel.WARN);
+            }
+            if (state == COUNTED) {
+                filtered(LogLevel.WARN);
+            }
+            return LogBuilder.NOOP;
+        }
+
+        // Method to start a structured ERROR event
+        public LogBuilder atError() {
+            int state = errorState;
+            if (state == ENABLED) {
+                return builders.acquire().start(this, LogLevel.ERROR);
+            }
+            if (state == COUNTED) {
+                filtered(LogLevel.ERROR);
+            }
+            return LogBuilder.NOOP;
+        }
+
+        // Guard for call sites that build expensive messages themselves
+        public boolean isInfoEnabled() {
+            return infoState == ENABLED;
+        }
+
+        // Guard for call sites that build expensive messages themselves
+        public boolean isWarnEnabled() {
+            return warnState == ENABLED;
+        }
+
+        // Guard for call sites that build expensive messages themselves
+        public boolean isErrorEnabled() {
+            return errorState == ENABLED;
         }
 
-        // Method to change the current log level at runtime
+        // Method to change the log level of this logger at runtime; null makes a named logger inherit its
+        // parent's level again. Descendants that inherit are updated in the same pass.
         public void setLogLevel(LogLevel logLevel) {
+            if (logLevel == null && parent == null) {
+                throw new IllegalArgumentException("The root logger needs a log level");
+            }
             lock.lock(); // Acquire the lock for thread safety
             try {
-                this.currentLogLevel = logLevel; // Update the current log level
+                configuredLevel = logLevel;
+                propagateLogLevel(logLevel != null ? logLevel : parent.currentLogLevel); // Update the current log level
             } finally {
                 lock.unlock(); // Ensure the lock is released
             }
         }
 
+        // Method to cache the effective level here and in every descendant without its own level (lock held)
+        private void propagateLogLevel(LogLevel effective) {
+            applyLogLevel(effective);
+            for (Logger child : children) {
+                if (child.configuredLevel == null) {
+                    child.propagateLogLevel(effective);
+                }
+            }
+        }
+
+        // Method to recompute the per-level states for a new threshold
+        private void applyLogLevel(LogLevel logLevel) {
+            int rejected = metrics.countFiltered ? COUNTED : DISABLED;
+            this.currentLogLevel = logLevel;
+            this.debugState = LogLevel.DEBUG.ordinal() >= logLevel.ordinal() ? ENABLED : rejected;
+            this.infoState = LogLevel.INFO.ordinal() >= logLevel.ordinal() ? ENABLED : rejected;
+            this.warnState = LogLevel.WARN.ordinal() >= logLevel.ordinal() ? ENABLED : rejected;
+            this.errorState = LogLevel.ERROR.ordinal() >= logLevel.ordinal() ? ENABLED : rejected;
+        }
+
+        // Method to switch counting of filtered events on or off for the whole hierarchy
+        void setCountingFiltered(boolean countingFiltered) {
+            lock.lock();
+            try {
+                metrics.countFiltered = countingFiltered;
+                root.reapplyLogLevels();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Method to recompute the per-level states here and in every descendant (lock held)
+        private void reapplyLogLevels() {
+            applyLogLevel(currentLogLevel);
+            for (Logger child : children) {
+                child.reapplyLogLevels();
+            }
+        }
+
+        // Method to get the current log level
+        public LogLevel getLogLevel() {
+            return currentLogLevel;
+        }
+
         // Method to close all appenders and release resources
         public void close() {
+            if (root != this) {
+                root.close(); // Appenders belong to the root, so closing any logger closes the hierarchy
+                return;
+            }
+            stopAsyncWriter(); // Let the writer flush pending events before appenders are closed
             lock.lock(); // Acquire the lock for thread safety
             try {
-                // Iterate through all appenders and close any FileAppender instances
-                for (Appender appender : appenders) {
-                    if (appender instanceof FileAppender) {
-                        ((FileAppender) appender).close(); // Close the FileAppender
-                    }
+                // Iterate through all appenders and close them, flushing any buffered output
+                for (MeteredAppender appender : appenders) {
+                    appender.appender.close();
                 }
             } finally {
                 lock.unlock(); // Ensure the lock is released
             }
         }
+
+        // Method to stop the async writer after it has drained every published event
+        private void stopAsyncWriter() {
+            Thread writer;
+            RingBuffer buffer;
+            lock.lock();
+            try {
+                writer = asyncWriter;
+                buffer = ringBuffer;
+                asyncWriter = null;
+                ringBuffer = null; // New messages go through the synchronous path from now on
+            } finally {
+                lock.unlock();
+            }
+            if (writer != null) {
+                buffer.close(); // The writer drains until producers already inside have published
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Self-contained micro-benchmarks for the logger hot paths, run with "java org.example.Main$Benchmarks".
+    // Each workload runs its own loop so the measured call site stays monomorphic, and allocation is
+    // read from the JVM's per-thread counters (the equivalent of JMH's -prof gc).
+    static final class Benchmarks {
+        // Workload executing the given number of operations on the calling thread
+        interface Workload {
+            void run(long operations);
+        }
+
+        // Appender discarding everything, so benchmarks measure the logger rather than I/O
+        static final class NullAppender implements Appender {
+            @Override
+            public void append(String logMessage) {
+            }
+
+            @Override
+            public void append(CharSequence logMessage) {
+            }
+        }
+
+        private static volatile long sink; // Consumes results so the JIT cannot drop the work
+        private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+
+        public static void main(String[] args) throws Exception {
+            long operations = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000L;
+            System.out.printf("%-44s %7s %12s %10s %14s%n", "benchmark", "threads", "ns/op", "B/op", "ops/s");
+
+            Logger disabled = new Logger(LogLevel.ERROR, new SimpleLogFormatter());
+            disabled.addAppender(new NullAppender());
+            run("log.disabled.debug", 1, operations, n -> {
+                for (long i = 0; i < n; i++) {
+                    disabled.debug("request {} done", "abc");
+                }
+            });
+            run("log.disabled.log(DEBUG)", 1, operations, n -> {
+                for (long i = 0; i < n; i++) {
+                    disabled.log(LogLevel.DEBUG, "request {} done", "abc");
+                }
+            });
+            run("log.disabled.isDebugEnabled", 1, operations, n -> {
+                long enabled = 0;
+                for (long i = 0; i < n; i++) {
+                    if (disabled.isDebugEnabled()) {
+                        enabled++;
+                    }
+                }
+                sink = enabled;
+            });
+            run("log.disabled.atDebug.kv", 1, operations, n -> {
+                for (long i = 0; i < n; i++) {
+                    disabled.atDebug().kv("orderId", i).kv("latencyUs", 12.5).log("filled");
+                }
+            });
+
+            Logger synchronous = new Logger(LogLevel.INFO, new SimpleLogFormatter());
+            synchronous.addAppender(new NullAppender());
+            run("log.enabled.sync.nullAppender", 1, operations, n -> {
+                for (long i = 0; i < n; i++) {
+                    synchronous.info("request {} done", "abc");
+                }
+            });
+            run("log.enabled.sync.atInfo.kv", 1, operations, n -> {
+                for (long i = 0; i < n; i++) {
+                    synchronous.atInfo().kv("orderId", i).kv("latencyUs", 12.5).log("filled");
+                }
+            });
+
+            Logger asynchronous = new Logger(LogLevel.INFO, new SimpleLogFormatter());
+            asynchronous.addAppender(new NullAppender());
+            asynchronous.enableAsync(64 * 1024);
+            for (int threads : THREAD_COUNTS) {
+                run("log.enabled.async.nullAppender", threads, operations / threads, n -> {
+                    for (long i = 0; i < n; i++) {
+                        asynchronous.info("request {} done", "abc");
+                    }
+                });
+            }
+            asynchronous.close();
+
+            for (int threads : THREAD_COUNTS) {
+                run("log.enabled.sync.nullAppender", threads, operations / threads, n -> {
+                    for (long i = 0; i < n; i++) {
+                        synchronous.info("request {} done", "abc");
+                    }
+                });
+            }
+
+            benchmarkFormatter("format.simple", new SimpleLogFormatter(), operations);
+            benchmarkFormatter("format.timestamped", new TimestampedLogFormatter(), operations);
+            benchmarkFormatter("format.timestamped.micros",
+                    new TimestampedLogFormatter(TimestampedLogFormatter.Precision.MICROS), operations);
+            benchmarkFormatter("format.pattern",
+                    new PatternLogFormatter("%d{ISO8601} %-5level [%thread] %logger - %msg%n"), operations);
+            benchmarkFormatter("format.json", new JsonLogFormatter(), operations);
+            // Format plus UTF-8 encoding, which is what byte appenders actually receive
+            benchmarkEncoding("encode.timestamped", new TimestampedLogFormatter(), operations);
+            benchmarkEncoding("encode.json", new JsonLogFormatter(), operations);
+
+            benchmarkFile("file.fileAppender", "file", operations / 10);
+            benchmarkFile("file.channelAppender", "channel", operations / 10);
+            benchmarkFile("file.mmapAppender", "mmap", operations / 10);
+            benchmarkFile("file.binaryAppender", "binary", operations / 10);
+
+            benchmarkThreadFootprint(args.length > 1 ? Integer.parseInt(args[1]) : 10_000);
+        }
+
+        // Method to measure the heap retained per live thread that has logged, the cost that dominates once
+        // there are far more threads than cores. Java 17 has no virtual threads, so this parks platform threads;
+        // the logger's share (format buffers, MDC entries) is the same for virtual threads. The B/op column
+        // holds the bytes each parked thread retains because of the action.
+        private static void benchmarkThreadFootprint(int threads) throws InterruptedException {
+            Logger logger = new Logger(LogLevel.INFO, new TimestampedLogFormatter());
+            logger.addAppender(new NullAppender());
+            ContextMap context = ContextMap.EMPTY.with("traceId", "abc");
+            Runnable scoped = () -> MDC.runWith(context, () -> logger.info("request {} done", "abc"));
+            Runnable put = () -> {
+                MDC.put("traceId", "abc");
+                logger.info("request {} done", "abc");
+            };
+            // The per-thread buffer cache used before the pool, for comparison
+            ThreadLocal<FormatBuffers> threadLocalBuffers = ThreadLocal.withInitial(FormatBuffers::new);
+            Runnable threadLocal = () -> sink += threadLocalBuffers.get().line.capacity();
+            retainedPerThread(Math.min(threads, 1000), scoped); // Warm-up: class loading and caches
+            footprintRow("footprint.liveThread.sync.mdcScoped", threads, retainedPerThread(threads, scoped));
+            footprintRow("footprint.liveThread.sync.mdcPut", threads, retainedPerThread(threads, put));
+            footprintRow("footprint.liveThread.threadLocalBuffers", threads, retainedPerThread(threads, threadLocal));
+        }
+
+        private static void footprintRow(String name, int threads, long bytesPerThread) {
+            System.out.printf("%-44s %7d %12s %10d %14s%n", name, threads, "n/a", bytesPerThread, "n/a");
+        }
+
+        // Method to start threads that park, run the action and park again; returns the heap retained per
+        // thread between the two parked states, so the threads' own footprint cancels out
+        private static long retainedPerThread(int threads, Runnable action) throws InterruptedException {
+            CountDownLatch parked = new CountDownLatch(threads);
+            CountDownLatch go = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            CountDownLatch release = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(null, () -> {
+                    try {
+                        parked.countDown();
+                        go.await();
+                        action.run();
+                        done.countDown();
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "footprint-" + t, 64 * 1024);
+                workers[t].start();
+            }
+            parked.await();
+            long before = usedHeapAfterGc();
+            go.countDown();
+            done.await();
+            long retained = usedHeapAfterGc() - before;
+            release.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            return retained / threads;
+        }
+
+        // Method to get the used heap after giving the collector a chance to run
+        private static long usedHeapAfterGc() {
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        // Method to benchmark formatTo into a reused buffer, as the writer thread uses it
+        private static void benchmarkFormatter(String name, LogFormatter formatter, long operations) {
+            run(name, 1, operations, n -> {
+                StringBuilder out = new StringBuilder(256);
+                LogEvent event = new LogEvent();
+                event.level = LogLevel.INFO;
+                event.loggerName = "com.shop.payments";
+                event.threadName = Thread.currentThread().getName();
+                long length = 0;
+                for (long i = 0; i < n; i++) {
+                    out.setLength(0);
+                    event.timestampNanos = LogClock.currentTimeNanos();
+                    formatter.formatTo(out, event, "request done");
+                    length += out.length();
+                }
+                sink = length;
+            });
+        }
+
+        // Method to benchmark formatting an event into the encoded line handed to byte appenders
+        private static void benchmarkEncoding(String name, LogFormatter formatter, long operations) {
+            run(name, 1, operations, n -> {
+                FormatBuffers buffers = new FormatBuffers();
+                LogEvent event = new LogEvent();
+                event.level = LogLevel.INFO;
+                event.loggerName = "com.shop.payments";
+                event.threadName = Thread.currentThread().getName();
+                event.template = "request \"abc\" done";
+                long length = 0;
+                for (long i = 0; i < n; i++) {
+                    event.timestampNanos = LogClock.currentTimeNanos();
+                    buffers.reset().prepare(formatter, event);
+                    length += buffers.encodedLine().remaining();
+                }
+                sink = length;
+            });
+        }
+
+        // Method to benchmark synchronous logging into a file appender of the given factory type
+        private static void benchmarkFile(String name, String type, long operations) throws IOException {
+            Path file = Files.createTempFile("logger-bench", ".log");
+            Logger logger = new Logger(LogLevel.INFO, new TimestampedLogFormatter());
+            logger.addAppender(AppenderFactory.createAppender(type, file.toString()));
+            try {
+                run(name, 1, operations, n -> {
+                    for (long i = 0; i < n; i++) {
+                        logger.info("request {} done", "abc");
+                    }
+                });
+            } finally {
+                logger.close();
+                Files.deleteIfExists(file);
+            }
+        }
+
+        // Method to warm up and then time the workload on the given number of threads, printing one row
+        private static void run(String name, int threads, long operationsPerThread, Workload workload) {
+            measure(threads, Math.max(1L, operationsPerThread / 4), workload); // Warm-up, discarded
+            long[] result = measure(threads, operationsPerThread, workload);
+            long totalOperations = operationsPerThread * threads;
+            double nanosPerOp = (double) result[0] * threads / totalOperations; // Per-thread latency
+            String bytesPerOp = result[1] < 0 ? "n/a" : String.format("%.1f", (double) result[1] / totalOperations);
+            double opsPerSecond = totalOperations * 1e9 / result[0];
+            System.out.printf("%-44s %7d %12.2f %10s %14.0f%n", name, threads, nanosPerOp, bytesPerOp, opsPerSecond);
+        }
+
+        // Method to run the workload on all threads at once; returns {elapsed nanos, allocated bytes or -1}
+        private static long[] measure(int threads, long operationsPerThread, Workload workload) {
+            java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) threadBean : null;
+            CountDownLatch start = new CountDownLatch(1);
+            LongAdder allocated = new LongAdder();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long before = allocationBean != null ? allocationBean.getCurrentThreadAllocatedBytes() : 0L;
+                    workload.run(operationsPerThread);
+                    if (allocationBean != null) {
+                        allocated.add(allocationBean.getCurrentThreadAllocatedBytes() - before);
+                    }
+                }, "benchmark-" + t);
+                workers[t].start();
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            return new long[]{elapsed, allocationBean != null ? allocated.sum() : -1L};
+        }
+    }
+
+    // Self-check that steady-state synchronous log calls allocate nothing, exiting with status 1 otherwise:
+    //   java org.example.Main$AllocationCheck [calls per round]
+    // Each case is warmed up first; a round allocating anything is retried a few times, since JIT recompilation
+    // can allocate on the logging thread, and the case fails only when no round comes out at zero.
+    static final class AllocationCheck {
+        private static final int ROUNDS = 5;
+
+        private AllocationCheck() {
+        }
+
+        public static void main(String[] args) {
+            long calls = args.length > 0 ? Long.parseLong(args[0]) : 200_000L;
+            java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            if (!(threadBean instanceof com.sun.management.ThreadMXBean)
+                    || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+                System.err.println("Thread allocation accounting is not supported by this JVM");
+                System.exit(2);
+            }
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+            boolean passed = true;
+            passed &= check(allocationBean, "sync.simple", new SimpleLogFormatter(), calls);
+            passed &= check(allocationBean, "sync.timestamped", new TimestampedLogFormatter(), calls);
+            passed &= check(allocationBean, "sync.timestamped.micros",
+                    new TimestampedLogFormatter(TimestampedLogFormatter.Precision.MICROS), calls);
+            passed &= check(allocationBean, "sync.pattern",
+                    new PatternLogFormatter("%d{ISO8601} %-5level [%thread] %logger - %msg%n"), calls);
+            passed &= check(allocationBean, "sync.json", new JsonLogFormatter(), calls);
+            if (!passed) {
+                System.exit(1);
+            }
+        }
+
+        // Method to log through a synchronous logger into a discarding appender and report the bytes allocated
+        // per call; returns whether a round allocated nothing
+        private static boolean check(com.sun.management.ThreadMXBean allocationBean, String name,
+                                     LogFormatter formatter, long calls) {
+            Logger logger = new Logger(LogLevel.INFO, formatter);
+            logger.addAppender(new Benchmarks.NullAppender());
+            logCalls(logger, calls); // Warm-up: buffers reach their final size and the hot path gets compiled
+            double bytesPerCall = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long before = allocationBean.getCurrentThreadAllocatedBytes();
+                logCalls(logger, calls);
+                long allocated = allocationBean.getCurrentThreadAllocatedBytes() - before;
+                bytesPerCall = (double) allocated / calls;
+                if (allocated == 0) {
+                    break;
+                }
+            }
+            logger.close();
+            boolean passed = bytesPerCall == 0;
+            System.out.printf("%-4s %-28s %8.2f B/op%n", passed ? "OK" : "FAIL", name, bytesPerCall);
+            return passed;
+        }
+
+        private static void logCalls(Logger logger, long calls) {
+            for (long i = 0; i < calls; i++) {
+                logger.info("request {} done", "abc");
+                logger.warn("slow request {} took {} ms", "abc", 25); // Small ints are cached boxes
+            }
+        }
     }
 
     public static void main(String[] args) {
-        Logger logger = Logger.getInstance(LogLevel.INFO, new TimestampedLogFormatter());
+        Logger logger = Logger.getInstance(LogLevel.INFO,
+                new TimestampedLogFormatter(TimestampedLogFormatter.Precision.MILLIS));
+        logger.enableAsync(1024); // Hand messages to a background writer thread
 
         // Add appenders using the factory
         logger.addAppender(AppenderFactory.createAppender("console", null)); // Output to console
@@ -233,6 +5131,17 @@ public class Main {
         // ERROR level is higher than INFO, so it is recorded regardless of the current log level
         logger.error("This is an error message.");
 
+        // Template arguments are captured by reference and only formatted by the writer thread
+        logger.info("Processed {} requests in {} ms", 42, 7);
+
+        // Suppliers are only invoked when the level is enabled, so this costs nothing at INFO
+        logger.debugWith(() -> "Expensive state dump: " + System.getProperties());
+
+        // Named loggers inherit the root level unless one is set for their branch of the hierarchy
+        Logger payments = Logger.getLogger("com.shop.payments");
+        logger.getChild("com.shop").setLogLevel(LogLevel.DEBUG);
+        payments.debug("Debug enabled for com.shop and everything below it.");
+
         // Change log level to DEBUG
         logger.setLogLevel(LogLevel.DEBUG);
         logger.debug("Debug level is now enabled."); // This will be logged